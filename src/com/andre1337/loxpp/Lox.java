@@ -1,9 +1,11 @@
 package com.andre1337.loxpp;
 
+import com.andre1337.loxpp.ast.AstStats;
 import com.andre1337.loxpp.ast.Stmt;
 import com.andre1337.loxpp.classes.LoxModule;
 import com.andre1337.loxpp.classes.RuntimeError;
 import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.interpreter.Optimizer;
 import com.andre1337.loxpp.lexer.Scanner;
 import com.andre1337.loxpp.lexer.Token;
 import com.andre1337.loxpp.lexer.TokenType;
@@ -13,22 +15,50 @@ import com.andre1337.loxpp.sema.Resolver;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Supplier;
 
 public class Lox {
   private static final Interpreter interpreter = new Interpreter();
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
-  private static List<String> sourceFile;
+  static Source sourceFile = Source.of(List.of());
   public static final Map<String, LoxModule> loadedModules = new HashMap<>();
   public static String[] cliArgs;
+  public static int optimizationLevel = Optimizer.DEFAULT_LEVEL;
+  public static boolean astStats = false;
+
+  // set on threads compiling modules ahead of time, see compileQuietly
+  private static final ThreadLocal<boolean[]> quietErrors = new ThreadLocal<>();
+
+  /** What error messages quote: the line to show for a token's line number, and its text. */
+  public interface Source {
+    int line(int line);
+
+    // null when there is no such line
+    String text(int line);
+
+    static Source of(List<String> lines) {
+      return new Source() {
+        @Override
+        public int line(int line) {
+          return line;
+        }
+
+        @Override
+        public String text(int line) {
+          return line > 0 && line <= lines.size() ? lines.get(line - 1) : null;
+        }
+      };
+    }
+  }
 
   private static void checkFileExtension(String path) {
     if (!path.endsWith(".lox") && !path.endsWith(".loxlib")) {
-      throw new RuntimeError(new Token(TokenType.EOF, "", null, 0, 0), "RuntimeError", "The provided file extension is not supported by Lox++.", "Please consider changing it to '.lox' if you're writing a program or '.loxlib' if you're writing a library.");
+      throw new RuntimeError(new Token(TokenType.EOF, "", 0, 0), "RuntimeError", "The provided file extension is not supported by Lox++.", "Please consider changing it to '.lox' if you're writing a program or '.loxlib' if you're writing a library.");
     }
   }
 
@@ -41,20 +71,33 @@ public class Lox {
     StringBuilder source = new StringBuilder();
 
     for (String library : libraries) {
-      InputStreamReader reader = new InputStreamReader(Objects.requireNonNull(Lox.class.getResourceAsStream(library)));
+      InputStreamReader reader = new InputStreamReader(Objects.requireNonNull(Lox.class.getResourceAsStream(library)), StandardCharsets.UTF_8);
       BufferedReader bufferedReader = new BufferedReader(reader);
 
       while ((line = bufferedReader.readLine()) != null) {
         source.append(line).append("\n");
       }
 
-      sourceFile = Arrays.asList(source.toString().split("\n"));
-      Lox.run(source.toString(), "natives/stdlib.loxlib");
+      sourceFile = Source.of(Arrays.asList(source.toString().split("\n")));
+      // scripts may redefine stdlib globals, so its calls are never inlined
+      Lox.run(source.toString(), "natives/stdlib.loxlib", Math.min(optimizationLevel, 1));
       source = new StringBuilder();
     }
   }
 
   public static void main(String[] args) throws IOException {
+    // -O0 runs the tree as parsed, -O1 folds constants and dead branches and optimizes loops, -O2 also inlines;
+    // --ast-stats reports what each module's tree costs in memory
+    while (args.length > 0 && (args[0].matches("-O[0-9]") || args[0].equals("--ast-stats"))) {
+      if (args[0].equals("--ast-stats")) {
+        astStats = true;
+      } else {
+        optimizationLevel = args[0].charAt(2) - '0';
+      }
+
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+
     cliArgs = args;
 
     if (args.length == 0) {
@@ -67,10 +110,10 @@ public class Lox {
 
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    String source = new String(bytes, Charset.defaultCharset());
+    String source = new String(bytes, StandardCharsets.UTF_8);
     loadStandardLibrary();
-    sourceFile = Arrays.asList(source.split("\n"));
-    run(source, path);
+    sourceFile = Source.of(Arrays.asList(source.split("\n")));
+    run(source, path, optimizationLevel);
 
     if (hadError) System.exit(65);
     if (hadRuntimeError) System.exit(70);
@@ -80,7 +123,7 @@ public class Lox {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
     loadStandardLibrary();
-    sourceFile = new ArrayList<>();
+    Session session = new Session(interpreter, optimizationLevel);
 
     for (;;) {
       if (!hadError) System.out.print("> ");
@@ -88,48 +131,68 @@ public class Lox {
       String line = reader.readLine();
       if (line == null) break;
 
-      sourceFile.add(line);
-      run(line + "\n", "console.loxlib");
+      // each input only compiles itself, and errors point at its line in the session
+      session.append(line + "\n");
 
       hadError = false;
     }
   }
 
-  private static void run(String source, String ignored) {
+  private static void run(String source, String name, int level) {
     List<Stmt> statements = getStmts(source);
     if (hadError) return;
 
-    /*
-    Optimizer optimizer = new Optimizer();
-    List<Stmt> optimized = optimizer.optimize(statements);
-    if (hadError) return;
-    */
-
     Resolver resolver = new Resolver(interpreter);
     resolver.resolve(statements);
 
     if (hadError) return;
 
+    statements = new Optimizer(interpreter, level).optimize(statements);
+    if (astStats) System.err.print(AstStats.of(statements).report(name));
+
+    interpreter.precompileImports(statements);
     interpreter.interpret(statements);
   }
 
   private static List<Stmt> getStmts(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
+    Parser parser = new Parser(new Scanner(source));
     return parser.parse();
   }
 
+  /**
+   * Runs a compile without reporting its errors, for modules compiled ahead of time on other
+   * threads. Returns null if there were any; the module is then compiled again where it's imported,
+   * so its errors come out in order.
+   */
+  public static <T> T compileQuietly(Supplier<T> compile) {
+    boolean[] failed = {false};
+    quietErrors.set(failed);
+
+    try {
+      T result = compile.get();
+      return failed[0] ? null : result;
+    } finally {
+      quietErrors.remove();
+    }
+  }
+
   public static void error(int line, int column, String message) {
     report(line, column, "", message);
   }
 
   private static void report(int line, int column, String where, String message) {
+    boolean[] failed = quietErrors.get();
+
+    if (failed != null) {
+      failed[0] = true;
+      return;
+    }
+
+    String sourceLine = sourceFile.text(line);
     StringBuilder msg = new StringBuilder();
-    msg.append("┌ [").append(line).append(":").append(column).append("] Error").append(where).append(": ").append(message).append("\n");
+    msg.append("┌ [").append(sourceFile.line(line)).append(":").append(column).append("] Error").append(where).append(": ").append(message).append("\n");
 
-    if (line > 0 && line <= sourceFile.size()) {
-      String sourceLine = sourceFile.get(line - 1);
+    if (sourceLine != null) {
       msg.append("├ ").append(sourceLine).append("\n");
 
       if (column > 0 && column <= sourceLine.length()) {
@@ -146,39 +209,40 @@ public class Lox {
 
   public static void error(Token token, String message) {
     if (token.type == TokenType.EOF) {
-      report(token.line - 1, token.column - 1, " at end", message);
+      report(token.line(), token.column() - 1, " at end", message);
     } else {
-      report(token.line - 1, token.column - 1, " at '" + token.lexeme + "'", message);
+      report(token.line(), token.column() - 1, " at '" + token.lexeme + "'", message);
     }
   }
 
   public static void runtimeError(RuntimeError error) {
     StringBuilder message = new StringBuilder();
+    int line = error.token.line();
+    String sourceLine = sourceFile.text(line);
 
-    try {
+    if (sourceLine != null) {
       message.append("┌ [")
-              .append(error.token.line)
+              .append(sourceFile.line(line))
               .append(":")
-              .append(error.token.column)
+              .append(error.token.column())
               .append("] RuntimeError: ")
               .append(error.getMessage())
               .append("\n├ ")
-              .append(sourceFile.get(error.token.line - 1))
+              .append(sourceLine)
               .append("\n│");
 
-      message.append(" ".repeat(Math.max(0, error.token.column - 1)));
+      message.append(" ".repeat(Math.max(0, error.token.column() - 1)));
 
       if (error.hint != null) {
         message.append(" ^\n│\n└ Hint: ").append(error.hint);
       } else {
         message.append(" ^\n│\n└");
       }
-    } catch (IndexOutOfBoundsException e) {
-      message = new StringBuilder();
+    } else {
       message.append("[")
-              .append(error.token.line)
+              .append(sourceFile.line(line))
               .append(":")
-              .append(error.token.column)
+              .append(error.token.column())
               .append("] RuntimeError: ")
               .append(error.getMessage());
     }
@@ -0,0 +1,237 @@
+package com.andre1337.loxpp;
+
+import com.andre1337.loxpp.ast.Stmt;
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.interpreter.Optimizer;
+import com.andre1337.loxpp.lexer.Scanner;
+import com.andre1337.loxpp.lexer.Token;
+import com.andre1337.loxpp.parser.Parser;
+import com.andre1337.loxpp.sema.Resolver;
+
+import java.util.*;
+
+/**
+ * A program that keeps changing: the prompt, or a script a host reloads on every edit. The text is
+ * kept as its top-level declarations, and an update only scans, parses, resolves and optimizes the
+ * declarations the edit touches. Top-level names are globals looked up by name, so the resolved
+ * trees of the others stay valid as they are.
+ * <p>
+ * Only the changed declarations run again. What the unchanged ones defined stays as it is, the
+ * same as retyping the changed ones at the prompt. Inlining reaches across declarations, so a
+ * session optimizes at level 1 at most, like the prompt always has.
+ * <p>
+ * Tokens keep the line they were scanned on, so every scan numbers its lines from a fresh range,
+ * and error messages map those numbers back to where the line is in the current text.
+ */
+public class Session implements Lox.Source {
+  // a top-level declaration with the whitespace and comments before it; trailing text has no statement
+  private record Declaration(Stmt statement, int length, int newlines, int line) {}
+
+  private final Interpreter interpreter;
+  private final Resolver resolver;
+  private final int level;
+
+  private String source = "";
+  private final List<Declaration> declarations = new ArrayList<>();
+  private int nextLine = 1;
+
+  // the region being compiled, so errors found before it is committed can point into it
+  private String pending = null;
+  private int pendingLine = 0;
+  private int pendingNewlines = 0;
+  private int pendingShownLine = 0;
+
+  public Session(Interpreter interpreter, int level) {
+    this.interpreter = interpreter;
+    this.resolver = new Resolver(interpreter);
+    this.level = Math.min(level, 1);
+  }
+
+  /**
+   * Replaces the whole text, recompiling and running what differs from the last text that
+   * compiled. Returns false, leaving the session as it was, if the new text has errors.
+   */
+  public boolean update(String text) {
+    int limit = Math.min(source.length(), text.length());
+    int prefix = 0;
+    while (prefix < limit && source.charAt(prefix) == text.charAt(prefix)) prefix++;
+
+    if (prefix == source.length() && prefix == text.length()) return true;
+
+    int suffix = 0;
+    while (suffix < limit - prefix
+            && source.charAt(source.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+      suffix++;
+    }
+
+    return compile(text, prefix, source.length() - suffix, true);
+  }
+
+  // adds text at the end, like a line typed at the prompt; what already ran is never parsed again,
+  // so an else can't reach back to the if on an earlier line
+  public boolean append(String text) {
+    return compile(source + text, source.length(), source.length(), false);
+  }
+
+  // [from, to) is the changed part of the old text; extend lets the edit continue the statement
+  // before it, which then runs again
+  private boolean compile(String text, int from, int to, boolean extend) {
+    int delta = text.length() - source.length();
+
+    // the declarations the edit touches, counting one that ends right where it starts when
+    // extending, since text added there can continue it (an else after an if)
+    int first = 0;
+    int start = 0;
+    int shownLine = 1;
+
+    while (first < declarations.size() && start + declarations.get(first).length < (extend ? from : from + 1)) {
+      start += declarations.get(first).length;
+      shownLine += declarations.get(first).newlines;
+      first++;
+    }
+
+    // the whitespace and comments left at the end of a region have no statement; the one they follow
+    // still ends right before them
+    while (extend && first > 0 && first < declarations.size() && declarations.get(first).statement == null) {
+      first--;
+      start -= declarations.get(first).length;
+      shownLine -= declarations.get(first).newlines;
+    }
+
+    int last = first;
+    int end = start;
+
+    while (last < declarations.size() && end <= to) {
+      end += declarations.get(last).length;
+      last++;
+    }
+
+    int regionEnd = end + delta;
+    int regionNewlines = newlines(text, start, regionEnd);
+
+    // once the line numbers run out everything is scanned again, numbered from the start
+    boolean renumber = nextLine + regionNewlines > Token.MAX_LINE;
+
+    if (renumber) {
+      first = 0;
+      last = declarations.size();
+      start = 0;
+      shownLine = 1;
+      regionEnd = text.length();
+      regionNewlines = newlines(text, 0, text.length());
+      nextLine = 1;
+    }
+
+    Map<Integer, Declaration> before = new HashMap<>();
+    for (int i = first, at = start; i < last; at += declarations.get(i++).length) {
+      before.put(at, declarations.get(i));
+    }
+
+    pending = text;
+    pendingLine = nextLine;
+    pendingNewlines = regionNewlines;
+    pendingShownLine = shownLine;
+    Lox.sourceFile = this;
+    Lox.hadError = false;
+
+    int column = start - (text.lastIndexOf('\n', start - 1) + 1);
+    List<Integer> ends = new ArrayList<>();
+    List<Stmt> statements = new Parser(new Scanner(text.substring(start, regionEnd), nextLine, column)).parse(ends);
+
+    if (!Lox.hadError) resolver.resolve(statements);
+
+    pending = null;
+    if (Lox.hadError) return false;
+
+    List<Declaration> compiled = new ArrayList<>();
+    List<Stmt> changed = new ArrayList<>();
+    int at = start;
+    int line = nextLine;
+
+    for (int i = 0; i <= statements.size(); i++) {
+      int stop = i < statements.size() ? start + ends.get(i) : regionEnd;
+      if (i == statements.size() && stop == at) break;
+
+      // text outside the edit that parsed into the same declaration as before didn't change
+      Declaration old = stop <= from ? before.get(at) : at >= to + delta ? before.get(at - delta) : null;
+      boolean same = old != null && old.length == stop - at;
+      Stmt statement = i < statements.size() ? statements.get(i) : null;
+
+      if (same && !renumber) {
+        compiled.add(old);
+      } else {
+        if (statement != null) statement = optimize(statement);
+        if (statement != null && !same) changed.add(statement);
+        compiled.add(new Declaration(statement, stop - at, newlines(text, at, stop), line));
+      }
+
+      line += newlines(text, at, stop);
+      at = stop;
+    }
+
+    declarations.subList(first, last).clear();
+    declarations.addAll(first, compiled);
+    source = text;
+    nextLine += regionNewlines + 1;
+
+    interpreter.interpret(changed);
+    return true;
+  }
+
+  private Stmt optimize(Stmt statement) {
+    List<Stmt> optimized = new Optimizer(interpreter, level).optimize(List.of(statement));
+    return optimized.isEmpty() ? null : optimized.getFirst();
+  }
+
+  private static int newlines(String text, int from, int to) {
+    int count = 0;
+
+    for (int i = from; i < to; i++) {
+      if (text.charAt(i) == '\n') count++;
+    }
+
+    return count;
+  }
+
+  // the line in the current text a scanned line number stands for, or -1
+  private int find(int line) {
+    if (pending != null && line >= pendingLine && line <= pendingLine + pendingNewlines) {
+      return pendingShownLine + line - pendingLine;
+    }
+
+    int shown = 1;
+
+    for (Declaration declaration : declarations) {
+      if (line >= declaration.line && line <= declaration.line + declaration.newlines) {
+        return shown + line - declaration.line;
+      }
+
+      shown += declaration.newlines;
+    }
+
+    return -1;
+  }
+
+  @Override
+  public int line(int line) {
+    int shown = find(line);
+    return shown < 0 ? line : shown;
+  }
+
+  @Override
+  public String text(int line) {
+    int shown = find(line);
+    if (shown < 0) return null;
+
+    String text = pending != null ? pending : source;
+    int start = 0;
+
+    for (int i = 1; i < shown; i++) {
+      start = text.indexOf('\n', start) + 1;
+      if (start == 0) return null;
+    }
+
+    int end = text.indexOf('\n', start);
+    return text.substring(start, end < 0 ? text.length() : end);
+  }
+}
@@ -0,0 +1,143 @@
+package com.andre1337.loxpp.ast;
+
+import com.andre1337.loxpp.lexer.Token;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What a module's tree costs to keep in memory, printed by --ast-stats. Sizes are shallow estimates
+ * for a 64-bit JVM with compressed references: 12-byte object headers, 4-byte references, 8-byte
+ * alignment. Objects reached more than once (interned symbols, shared literal nodes) count once.
+ */
+public final class AstStats {
+  private static final Map<Class<?>, List<Field>> fields = new ConcurrentHashMap<>();
+
+  private final Map<Object, Boolean> seen = new IdentityHashMap<>();
+  private final Map<String, long[]> byKind = new HashMap<>(); // count, bytes
+  private int nodes = 0;
+  private int tokens = 0;
+  private int shared = 0;
+  private long bytes = 0;
+
+  private AstStats() {
+  }
+
+  public static AstStats of(List<Stmt> statements) {
+    AstStats stats = new AstStats();
+    stats.walk(statements);
+    return stats;
+  }
+
+  public String report(String module) {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("ast %s: %,d nodes, %,d tokens, %,d shared references, ~%,d KB%n",
+            module, nodes, tokens, shared, (bytes + 1023) / 1024));
+
+    byKind.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]))
+            .limit(8)
+            .forEach(entry -> report.append(String.format("  %-20s %,9d  ~%,d KB%n",
+                    entry.getKey(), entry.getValue()[0], (entry.getValue()[1] + 1023) / 1024)));
+
+    return report.toString();
+  }
+
+  private void walk(Object object) {
+    if (object == null || object instanceof Enum<?>) return;
+
+    if (seen.put(object, Boolean.TRUE) != null) {
+      shared++;
+      return;
+    }
+
+    switch (object) {
+      case List<?> list -> {
+        count("List", 24 + align(16 + 4L * list.size()));
+        list.forEach(this::walk);
+      }
+
+      case Map<?, ?> map -> {
+        count("Map", 56 + align(16 + 4L * Integer.highestOneBit(map.size() * 2 + 1)) + 40L * map.size());
+        map.forEach((key, value) -> {
+          walk(key);
+          walk(value);
+        });
+      }
+
+      case String str -> count("String", 24 + align(16 + str.length()));
+      case Double ignored -> count("Double", 16);
+      case Boolean ignored -> count("Boolean", 16);
+
+      default -> {
+        Class<?> type = object.getClass();
+
+        // runtime values reachable through caches belong to the interpreter, not the tree
+        if (!isTreeClass(type)) return;
+
+        if (object instanceof Expr || object instanceof Stmt) nodes++;
+        if (object instanceof Token) tokens++;
+
+        long size = 12;
+
+        for (Field field : fields(type)) {
+          Class<?> fieldType = field.getType();
+          size += fieldType == long.class || fieldType == double.class ? 8
+                  : fieldType == int.class || fieldType == float.class ? 4
+                  : fieldType == short.class || fieldType == char.class ? 2
+                  : fieldType == byte.class || fieldType == boolean.class ? 1
+                  : 4;
+
+          if (!fieldType.isPrimitive()) {
+            try {
+              walk(field.get(object));
+            } catch (IllegalAccessException ignored) {
+            }
+          }
+        }
+
+        count(kind(type), align(size));
+      }
+    }
+  }
+
+  private static boolean isTreeClass(Class<?> type) {
+    return Expr.class.isAssignableFrom(type) || Stmt.class.isAssignableFrom(type)
+            || type == Token.class || type.getPackage() == AstStats.class.getPackage();
+  }
+
+  private static String kind(Class<?> type) {
+    Class<?> outer = type.getEnclosingClass();
+    return outer == null ? type.getSimpleName() : outer.getSimpleName() + "." + type.getSimpleName();
+  }
+
+  private static List<Field> fields(Class<?> type) {
+    return fields.computeIfAbsent(type, t -> {
+      List<Field> all = new ArrayList<>();
+
+      for (Class<?> c = t; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) continue;
+
+          field.setAccessible(true);
+          all.add(field);
+        }
+      }
+
+      return all;
+    });
+  }
+
+  private void count(String kind, long size) {
+    long[] entry = byKind.computeIfAbsent(kind, k -> new long[2]);
+    entry[0]++;
+    entry[1] += size;
+    bytes += size;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+}
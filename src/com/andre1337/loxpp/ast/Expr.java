@@ -1,6 +1,8 @@
 package com.andre1337.loxpp.ast;
 
 import com.andre1337.loxpp.classes.LoxClass;
+import com.andre1337.loxpp.classes.LoxFunction;
+import com.andre1337.loxpp.classes.LoxString;
 import com.andre1337.loxpp.lexer.Token;
 
 import java.util.List;
@@ -65,6 +67,8 @@ public abstract class Expr {
     R visitAwaitExpr(Await expr);
 
     R visitNewExpr(New expr);
+
+    R visitHoistedExpr(Hoisted expr);
   }
 
   public static class Assign extends Expr {
@@ -80,6 +84,10 @@ public abstract class Expr {
 
     public final Token name;
     public final Expr value;
+
+    // resolved like Variable
+    public int depth = -1;
+    public int index = 0;
   }
 
   public static class Binary extends Expr {
@@ -135,7 +143,8 @@ public abstract class Expr {
     // inline caching fields
     public LoxClass cachedClass = null;
     public int cachedPropertyIndex = -1;
-    public boolean isMethod = false;
+    public LoxFunction cachedMethod = null; // found through the superclasses too
+    public LoxString dictKey = null;
   }
 
   public static class Grouping extends Expr {
@@ -215,6 +224,10 @@ public abstract class Expr {
 
     public final Token keyword;
     public final Token method;
+
+    // resolved like Variable
+    public int depth = -1;
+    public int index = 0;
   }
 
   public static class This extends Expr {
@@ -228,6 +241,10 @@ public abstract class Expr {
     }
 
     public final Token keyword;
+
+    // resolved like Variable
+    public int depth = -1;
+    public int index = 0;
   }
 
   public static class Unary extends Expr {
@@ -256,6 +273,10 @@ public abstract class Expr {
     }
 
     public final Token name;
+
+    // set by the Resolver: the variable is `depth` scopes up, in slot `index`; -1 means a global
+    public int depth = -1;
+    public int index = 0;
   }
 
   public static class Array extends Expr {
@@ -505,5 +526,21 @@ public abstract class Expr {
     public final Expr.Call constructor;
   }
 
+  // a loop-invariant expression, computed once per run of its loop (see Optimizer)
+  public static class Hoisted extends Expr {
+    public Hoisted(Expr expression, int index, boolean readsHeap) {
+      this.expression = expression;
+      this.index = index;
+      this.readsHeap = readsHeap;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) { return visitor.visitHoistedExpr(this); }
+
+    public final Expr expression;
+    public final int index;
+    public final boolean readsHeap;
+  }
+
   public abstract <R> R accept(Visitor<R> visitor);
 }
@@ -88,6 +88,8 @@ public abstract class Stmt {
     public final List<Expr> traits;
     public final List<Stmt.Function> methods;
     public final List<Stmt.Function> staticMethods;
+    // set by the Resolver: the data class fields, then every `self.x =` in init, in order
+    public List<String> declaredFields = List.of();
   }
 
   public static class Expression extends Stmt {
@@ -126,6 +128,8 @@ public abstract class Stmt {
     public final boolean isAbstract;
     public final boolean isAsync;
     public final boolean isPrivate;
+    // set by the Resolver: a method, whose frame holds self (Self for static ones) in its first slot
+    public boolean hasReceiver = false;
   }
 
   public static class If extends Stmt {
@@ -188,6 +192,9 @@ public abstract class Stmt {
 
     public final Expr condition;
     public final Stmt body;
+
+    // set by the Optimizer
+    public int hoisted = 0;
   }
 
   public static class ForIn extends Stmt {
@@ -209,6 +216,13 @@ public abstract class Stmt {
     public final Token value;
     public final Expr iterable;
     public final List<Stmt> body;
+
+    // set by the Resolver: the body makes closures, so each iteration needs a scope of its own
+    public boolean closures = false;
+
+    // set by the Optimizer
+    public int hoisted = 0;
+    public boolean rangeLoop = false;
   }
 
   public static class Trait extends Stmt {
@@ -364,6 +378,16 @@ public abstract class Stmt {
     public final Expr condition;
     public final Expr increment;
     public final List<Stmt> body;
+
+    // set by the Resolver: the body makes closures, so each iteration needs a scope of its own
+    public boolean closures = false;
+
+    // set by the Optimizer; a counted loop is `for (i = start; i < limit; i = i + step)` whose
+    // body never assigns i, and keeps its counter in Java
+    public int hoisted = 0;
+    public Token countedOperator = null;
+    public Expr countedLimit = null;
+    public double countedStep = 0;
   }
 
   public static class Impl extends Stmt {
@@ -0,0 +1,26 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+
+import java.util.List;
+
+/**
+ * A method taken off its receiver as a value. Calls made straight on the receiver (`obj.m()`,
+ * operators, iteration) pass it to the method themselves and never create one.
+ */
+public record BoundMethod(LoxFunction method, Object self) implements LoxCallable {
+  @Override
+  public int arity() {
+    return method.arity();
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+    return method.invoke(interpreter, self, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return method.toString();
+  }
+}
@@ -9,7 +9,8 @@ import java.util.stream.Collectors;
 public class LoxArray implements LoxIndexable {
     public final Interpreter interpreter;
     public final List<Object> elements;
-    private final Map<String, LoxCallable> methods;
+    // built on first method access, JSON documents create far more arrays than ever call a method
+    private Map<String, LoxCallable> methods;
 
     private final static String BOUNDS_ERROR_MSG = "Array index is out of bounds.";
     private final static String EMPTY_ERROR_MSG = "Array is empty.";
@@ -18,8 +19,6 @@ public class LoxArray implements LoxIndexable {
     public LoxArray(Interpreter interpreter, List<Object> elements) {
         this.interpreter = interpreter;
         this.elements = elements;
-
-        this.methods = createMethods(this);
     }
 
     private static Map<String, LoxCallable> createMethods(LoxArray array) {
@@ -154,7 +153,7 @@ public class LoxArray implements LoxIndexable {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
-                LoxFunction callback = (LoxFunction) arguments.getFirst();
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
                 List<Object> result = new ArrayList<>();
 
                 for (Object item : array.elements) {
@@ -173,7 +172,7 @@ public class LoxArray implements LoxIndexable {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
-                LoxFunction callback = (LoxFunction) arguments.getFirst();
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
                 List<Object> result = new ArrayList<>();
 
                 for (Object item : array.elements) {
@@ -195,7 +194,7 @@ public class LoxArray implements LoxIndexable {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
-                LoxFunction callback = (LoxFunction) arguments.getFirst();
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
                 Object accumulator = arguments.get(1);
 
                 for (Object item : array.elements) {
@@ -207,10 +206,61 @@ public class LoxArray implements LoxIndexable {
             }
         });
 
+        methods.put("join", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // 1: optional separator
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                String separator = arguments.isEmpty() ? "" : Interpreter.stringify(arguments.getFirst());
+                StringJoiner joiner = new StringJoiner(separator);
+
+                for (Object item : array.elements) {
+                    joiner.add(Interpreter.stringify(item));
+                }
+
+                return new LoxString(joiner.toString());
+            }
+        });
+
+        methods.put("sort", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // 1: optional comparator (a, b)
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                LoxCallable comparator = arguments.isEmpty() ? null : LoxCallable.expect(arguments.getFirst(), "comparator");
+                LoxSort.sort(array.interpreter, array.elements, comparator);
+                return array;
+            }
+        });
+
+        methods.put("sort_by", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // 1: key function or key name, 2: ascending (default true)
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                boolean ascending = arguments.size() < 2 || Boolean.TRUE.equals(arguments.get(1));
+                LoxSort.sortBy(array.elements, LoxSort.keyExtractor(array.interpreter, arguments.isEmpty() ? null : arguments.getFirst()), ascending);
+                return array;
+            }
+        });
+
         return methods;
     }
 
     public LoxCallable getMethod(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
         if (methods.containsKey(name.lexeme)) {
             return methods.get(name.lexeme);
         }
@@ -0,0 +1,254 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An immutable run of bytes. File contents, socket reads and WebSocket frames can stay binary all
+ * the way through instead of being smuggled around as ISO-8859-1 strings; decode turns them into
+ * text once the charset is known.
+ */
+public class LoxBytes implements LoxNativeObject, LoxIndexable, Iterable<Object> {
+    private static final HexFormat HEX = HexFormat.of();
+
+    public final byte[] bytes;
+    private Map<String, LoxCallable> methods;
+
+    public LoxBytes(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Charset names as scripts write them ("utf-8", "latin1", ...); null means UTF-8.
+     */
+    public static Charset charset(Token token, Object name) {
+        if (name == null) return StandardCharsets.UTF_8;
+
+        String charsetName = name instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(name);
+
+        try {
+            return switch (charsetName.toLowerCase(Locale.ROOT)) {
+                case "utf-8", "utf8" -> StandardCharsets.UTF_8;
+                case "latin1", "latin-1", "iso-8859-1" -> StandardCharsets.ISO_8859_1;
+                case "ascii", "us-ascii" -> StandardCharsets.US_ASCII;
+                default -> Charset.forName(charsetName);
+            };
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeError(token, "RuntimeError", "Unknown charset '" + charsetName + "'.", null);
+        }
+    }
+
+    /**
+     * Bytes pass through untouched, anything else is encoded as text.
+     */
+    public static byte[] toBytes(Object value, Charset charset) {
+        return switch (value) {
+            case LoxBytes loxBytes -> loxBytes.bytes;
+            case LoxString loxStr -> loxStr.value.getBytes(charset);
+            case String str -> str.getBytes(charset);
+            case null, default -> Interpreter.stringify(value).getBytes(charset);
+        };
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxBytes bytes) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("len", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return (double) bytes.bytes.length;
+            }
+        });
+
+        methods.put("decode", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // 1: optional charset, UTF-8 by default
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Charset charset = charset(null, arguments.isEmpty() ? null : arguments.getFirst());
+                return new LoxString(new String(bytes.bytes, charset));
+            }
+        });
+
+        methods.put("slice", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // 1: start, 2: optional end
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                int start = (int) (double) arguments.getFirst();
+                int end = arguments.size() > 1 ? (int) (double) arguments.get(1) : bytes.bytes.length;
+
+                if (start < 0 || end > bytes.bytes.length || start > end) {
+                    throw new RuntimeError(null, "RuntimeError", "Slice bounds are out of range.", null);
+                }
+
+                return new LoxBytes(Arrays.copyOfRange(bytes.bytes, start, end));
+            }
+        });
+
+        methods.put("concat", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                byte[] other = toBytes(arguments.getFirst(), StandardCharsets.UTF_8);
+                byte[] joined = Arrays.copyOf(bytes.bytes, bytes.bytes.length + other.length);
+                System.arraycopy(other, 0, joined, bytes.bytes.length, other.length);
+
+                return new LoxBytes(joined);
+            }
+        });
+
+        methods.put("index_of", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1; // a byte value, a Bytes or a string (as UTF-8)
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                byte[] needle = arguments.getFirst() instanceof Double d
+                        ? new byte[] { (byte) (double) d }
+                        : toBytes(arguments.getFirst(), StandardCharsets.UTF_8);
+
+                return (double) bytes.indexOf(needle);
+            }
+        });
+
+        methods.put("to_hex", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxString(HEX.formatHex(bytes.bytes));
+            }
+        });
+
+        methods.put("to_base64", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxString(Base64.getEncoder().encodeToString(bytes.bytes));
+            }
+        });
+
+        methods.put("to_array", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                List<Object> values = new ArrayList<>(bytes.bytes.length);
+                for (byte b : bytes.bytes) values.add((double) (b & 0xFF));
+                return new LoxArray(interpreter, values);
+            }
+        });
+
+        return methods;
+    }
+
+    private int indexOf(byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= bytes.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) continue outer;
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public Object get(Token token, Object index) {
+        if (!(index instanceof Double d) || d < 0 || d >= bytes.length || d != Math.floor(d)) {
+            throw new RuntimeError(token, "RuntimeError", "Bytes index is out of bounds.", null);
+        }
+
+        return (double) (bytes[(int) (double) d] & 0xFF);
+    }
+
+    @Override
+    public void set(Token token, Object index, Object item) {
+        throw new RuntimeError(token, "RuntimeError", "Bytes are immutable.", "Build a new value with 'concat' or 'slice'.");
+    }
+
+    @Override
+    public int length() {
+        return bytes.length;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < bytes.length;
+            }
+
+            @Override
+            public Object next() {
+                if (i >= bytes.length) throw new NoSuchElementException();
+                return (double) (bytes[i++] & 0xFF);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof LoxBytes other && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "<bytes " + bytes.length + ">";
+    }
+}
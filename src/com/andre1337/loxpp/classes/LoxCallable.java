@@ -8,4 +8,12 @@ public interface LoxCallable {
   int arity();
 
   Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall);
+
+  /**
+   * The argument a native method calls back into, e.g. the callback of each() or a sort comparator.
+   */
+  static LoxCallable expect(Object value, String role) {
+    if (value instanceof LoxCallable callable) return callable;
+    throw new RuntimeError(null, "RuntimeError", "Expected a function as the " + role + ".", null);
+  }
 }
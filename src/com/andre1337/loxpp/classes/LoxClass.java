@@ -17,6 +17,13 @@ public class LoxClass extends LoxInstance implements LoxCallable {
 
   public final Map<String, Integer> fieldLayout = new HashMap<>();
   public boolean isShapeLocked = false;
+  // the slots laid out before any instance existed; every instance has room for them
+  public int declaredFields;
+  // how many slots were copied from the superclass, which keep their index here
+  private final int inheritedFields;
+
+  // slot -> field name, the inverse of fieldLayout; rebuilt whenever the layout has grown
+  private String[] slotNames = new String[0];
 
   final LoxClass meta;
 
@@ -35,6 +42,47 @@ public class LoxClass extends LoxInstance implements LoxCallable {
     if (superclass != null) {
       this.fieldLayout.putAll(superclass.fieldLayout);
     }
+
+    this.inheritedFields = fieldLayout.size();
+    this.declaredFields = fieldLayout.size();
+  }
+
+  /**
+   * Lays out the fields the Resolver found the class declaring, after the inherited ones, so
+   * instances are allocated at their final size and field caches hold from the first call.
+   */
+  public void declareFields(List<String> names) {
+    for (String name : names) {
+      fieldLayout.putIfAbsent(name, fieldLayout.size());
+    }
+
+    declaredFields = fieldLayout.size();
+  }
+
+  // whether a slot cached for `other` holds the same field in instances of this class
+  public boolean sharesSlot(LoxClass other, int slot) {
+    int limit = Integer.MAX_VALUE;
+
+    for (LoxClass klass = this; klass != null; klass = klass.superclass) {
+      if (klass == other) return slot < limit;
+      limit = Math.min(limit, klass.inheritedFields);
+    }
+
+    return false;
+  }
+
+  public String[] slotNames() {
+    if (slotNames.length != fieldLayout.size()) {
+      String[] names = new String[fieldLayout.size()];
+
+      for (Map.Entry<String, Integer> entry : fieldLayout.entrySet()) {
+        names[entry.getValue()] = entry.getKey();
+      }
+
+      slotNames = names;
+    }
+
+    return slotNames;
   }
 
   public void addTrait(LoxTrait trait) {
@@ -68,7 +116,7 @@ public class LoxClass extends LoxInstance implements LoxCallable {
     LoxFunction initializer = findMethod("init");
 
     if (initializer != null) {
-      initializer.bind(instance).call(interpreter, arguments, false);
+      initializer.invoke(interpreter, instance, arguments);
     }
 
     isShapeLocked = true;
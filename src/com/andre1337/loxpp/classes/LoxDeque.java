@@ -0,0 +1,282 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.util.*;
+
+/**
+ * std.Collections.Deque, a growable ring buffer. Pushing and popping at either end is O(1), unlike
+ * LoxArray.pop which shifts the whole array, so it's the queue to use for BFS and work lists.
+ */
+public class LoxDeque implements LoxNativeObject, LoxIndexable, Iterable<Object> {
+    private static final String EMPTY_ERROR_MSG = "Deque is empty.";
+    private static final String BOUNDS_ERROR_MSG = "Deque index is out of bounds.";
+
+    public final Interpreter interpreter;
+    private Object[] elements = new Object[16];
+    private int head = 0;
+    private int size = 0;
+    private Map<String, LoxCallable> methods;
+
+    public LoxDeque(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    private int slot(int i) {
+        return (head + i) & (elements.length - 1);
+    }
+
+    private void grow() {
+        Object[] bigger = new Object[elements.length * 2];
+        int front = elements.length - head;
+
+        System.arraycopy(elements, head, bigger, 0, front);
+        System.arraycopy(elements, 0, bigger, front, head);
+
+        elements = bigger;
+        head = 0;
+    }
+
+    public void pushBack(Object item) {
+        if (size == elements.length) grow();
+        elements[slot(size++)] = item;
+    }
+
+    public void pushFront(Object item) {
+        if (size == elements.length) grow();
+        head = (head - 1) & (elements.length - 1);
+        elements[head] = item;
+        size++;
+    }
+
+    public Object popFront() {
+        if (size == 0) throw new RuntimeError(null, "RuntimeError", EMPTY_ERROR_MSG, null);
+
+        Object item = elements[head];
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return item;
+    }
+
+    public Object popBack() {
+        if (size == 0) throw new RuntimeError(null, "RuntimeError", EMPTY_ERROR_MSG, null);
+
+        int last = slot(--size);
+        Object item = elements[last];
+        elements[last] = null;
+        return item;
+    }
+
+    private Object peek(int i) {
+        if (size == 0) throw new RuntimeError(null, "RuntimeError", EMPTY_ERROR_MSG, null);
+        return elements[slot(i)];
+    }
+
+    private List<Object> toList() {
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) list.add(elements[slot(i)]);
+        return list;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxDeque deque) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("push_back", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                deque.pushBack(arguments.getFirst());
+                return null;
+            }
+        });
+
+        methods.put("push_front", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                deque.pushFront(arguments.getFirst());
+                return null;
+            }
+        });
+
+        methods.put("pop_front", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return deque.popFront();
+            }
+        });
+
+        methods.put("pop_back", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return deque.popBack();
+            }
+        });
+
+        methods.put("peek_front", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return deque.peek(0);
+            }
+        });
+
+        methods.put("peek_back", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return deque.peek(deque.size - 1);
+            }
+        });
+
+        methods.put("size", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return (double) deque.size;
+            }
+        });
+
+        methods.put("is_empty", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return deque.size == 0;
+            }
+        });
+
+        methods.put("clear", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Arrays.fill(deque.elements, null);
+                deque.head = 0;
+                deque.size = 0;
+                return null;
+            }
+        });
+
+        methods.put("each", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
+
+                for (Object item : deque.toList()) {
+                    callback.call(interpreter, Collections.singletonList(item), false);
+                }
+
+                return null;
+            }
+        });
+
+        methods.put("to_array", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxArray(deque.interpreter, deque.toList());
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    private int indexOf(Token token, Object index) {
+        if (!(index instanceof Double d) || d != Math.floor(d)) {
+            throw new RuntimeError(token, "RuntimeError", "Deque index must be an integer.", null);
+        }
+
+        int i = (int) (double) d;
+        if (i < 0 || i >= size) throw new RuntimeError(token, "RuntimeError", BOUNDS_ERROR_MSG, null);
+
+        return i;
+    }
+
+    @Override
+    public Object get(Token token, Object index) {
+        return elements[slot(indexOf(token, index))];
+    }
+
+    @Override
+    public void set(Token token, Object index, Object item) {
+        elements[slot(indexOf(token, index))] = item;
+    }
+
+    @Override
+    public int length() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return toList().iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "[ ", " ]");
+        for (int i = 0; i < size; i++) joiner.add(Interpreter.stringify(elements[slot(i)]));
+        return joiner.toString();
+    }
+}
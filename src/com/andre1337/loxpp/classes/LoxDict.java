@@ -0,0 +1,354 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * The dictionary behind every Lox++ dict. Entries live in insertion order in parallel key/value/hash
+ * arrays; a separate open-addressing table of entry indices makes lookups O(1). Dicts of up to
+ * SMALL_LIMIT keys (most JSON records) skip the table and just scan their cached hashes.
+ */
+public final class LoxDict extends AbstractMap<Object, Object> {
+    private static final int SMALL_LIMIT = 8;
+    private static final int EMPTY = -1;
+    private static final int DUMMY = -2;
+    private static final Object DELETED = new Object();
+    private static final Object[] NO_OBJECTS = new Object[0];
+    private static final int[] NO_INTS = new int[0];
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int[] index; // null while the dict is small
+    private int used = 0; // entry slots taken, deleted ones included
+    private int size = 0;
+    private int dummies = 0; // index slots left behind by removals
+    private int modCount = 0;
+
+    public LoxDict() {
+        this(0);
+    }
+
+    public LoxDict(int expectedSize) {
+        if (expectedSize <= 0) {
+            keys = NO_OBJECTS;
+            values = NO_OBJECTS;
+            hashes = NO_INTS;
+        } else {
+            keys = new Object[expectedSize];
+            values = new Object[expectedSize];
+            hashes = new int[expectedSize];
+        }
+    }
+
+    public LoxDict(Map<?, ?> other) {
+        this(other.size());
+
+        for (Map.Entry<?, ?> entry : other.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int find(Object key, int hash) {
+        if (index == null) {
+            for (int i = 0; i < used; i++) {
+                if (hashes[i] == hash && keys[i] != DELETED && Objects.equals(keys[i], key)) return i;
+            }
+
+            return EMPTY;
+        }
+
+        int mask = index.length - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot];
+            if (entry == EMPTY) return EMPTY;
+
+            if (entry >= 0 && hashes[entry] == hash && Objects.equals(keys[entry], key)) {
+                return entry;
+            }
+        }
+    }
+
+    private void insertIndex(int hash, int entry) {
+        int mask = index.length - 1;
+        int slot = hash & mask;
+
+        while (index[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (index[slot] == DUMMY) dummies--;
+        index[slot] = entry;
+    }
+
+    private void rebuildIndex() {
+        if (used <= SMALL_LIMIT && keys.length <= SMALL_LIMIT) {
+            index = null;
+            return;
+        }
+
+        // at most half full, counting the entry slots that deletions left behind
+        int capacity = Integer.highestOneBit(Math.max(keys.length, SMALL_LIMIT) * 2 - 1) << 1;
+
+        if (index == null || index.length != capacity) {
+            index = new int[capacity];
+        }
+
+        Arrays.fill(index, EMPTY);
+        dummies = 0;
+
+        for (int i = 0; i < used; i++) {
+            if (keys[i] != DELETED) insertIndex(hashes[i], i);
+        }
+    }
+
+    private void makeRoom() {
+        if (size < used / 2) {
+            compact();
+            return;
+        }
+
+        int capacity = keys.length == 0 ? 4 : keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        rebuildIndex();
+    }
+
+    private void compact() {
+        int to = 0;
+
+        for (int from = 0; from < used; from++) {
+            if (keys[from] == DELETED) continue;
+
+            keys[to] = keys[from];
+            values[to] = values[from];
+            hashes[to] = hashes[from];
+            to++;
+        }
+
+        Arrays.fill(keys, to, used, null);
+        Arrays.fill(values, to, used, null);
+        used = to;
+        rebuildIndex();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key, hash(key)) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int entry = find(key, hash(key));
+        return entry >= 0 ? values[entry] : null;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        int hash = hash(key);
+        int entry = find(key, hash);
+
+        if (entry >= 0) {
+            Object old = values[entry];
+            values[entry] = value;
+            return old;
+        }
+
+        if (used == keys.length) {
+            makeRoom();
+        }
+
+        entry = used++;
+        keys[entry] = Interpreter.copyKey(key);
+        values[entry] = value;
+        hashes[entry] = hash;
+        size++;
+        modCount++;
+
+        if (index != null) {
+            insertIndex(hash, entry);
+        } else if (used > SMALL_LIMIT) {
+            rebuildIndex();
+        }
+
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int entry = find(key, hash(key));
+        if (entry < 0) return null;
+
+        Object old = values[entry];
+        removeAt(entry);
+        return old;
+    }
+
+    private void removeAt(int entry) {
+        if (index != null) {
+            int mask = index.length - 1;
+            int slot = hashes[entry] & mask;
+
+            while (index[slot] != entry) {
+                slot = (slot + 1) & mask;
+            }
+
+            index[slot] = DUMMY;
+            dummies++;
+        }
+
+        keys[entry] = DELETED;
+        values[entry] = null;
+        size--;
+        modCount++;
+
+        // trailing deletions can simply be given back
+        while (used > 0 && keys[used - 1] == DELETED) {
+            keys[--used] = null;
+        }
+
+        // too many tombstones make probe chains long (and could fill the table), re-insert the live
+        // entries; this never moves entries, so it's safe in the middle of an iteration
+        if (index != null && dummies > index.length / 4) {
+            rebuildIndex();
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, used, null);
+        Arrays.fill(values, 0, used, null);
+        used = 0;
+        size = 0;
+        dummies = 0;
+        index = null;
+        modCount++;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Object, ? super Object> action) {
+        int expected = modCount;
+
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == DELETED) continue;
+
+            action.accept(keys[i], values[i]);
+            if (modCount != expected) throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Object, Object>> {
+        private int next = skipDeleted(0);
+        private int last = -1;
+        private int expected = modCount;
+
+        private int skipDeleted(int i) {
+            while (i < used && keys[i] == DELETED) i++;
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < used;
+        }
+
+        @Override
+        public Map.Entry<Object, Object> next() {
+            if (modCount != expected) throw new ConcurrentModificationException();
+            if (next >= used) throw new NoSuchElementException();
+
+            last = next;
+            next = skipDeleted(next + 1);
+
+            return new Entry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) throw new IllegalStateException();
+            if (modCount != expected) throw new ConcurrentModificationException();
+
+            removeAt(last);
+            last = -1;
+            expected = modCount;
+            next = skipDeleted(Math.min(next, used));
+        }
+    }
+
+    private final class Entry implements Map.Entry<Object, Object> {
+        private final int slot;
+
+        private Entry(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public Object getKey() {
+            return keys[slot];
+        }
+
+        @Override
+        public Object getValue() {
+            return values[slot];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object old = values[slot];
+            values[slot] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Map.Entry<?, ?> e && Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
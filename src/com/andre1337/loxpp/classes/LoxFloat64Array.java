@@ -0,0 +1,345 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.util.*;
+
+/**
+ * std.Collections.Float64Array, a fixed-length array of numbers kept in a double[] instead of a
+ * list of boxed Doubles. The bulk operations run as plain loops over the primitive array, which
+ * the JIT unrolls and vectorizes.
+ */
+public class LoxFloat64Array implements LoxNativeObject, LoxIndexable, Iterable<Object> {
+    private static final String LENGTH_ERROR_MSG = "Float64Arrays must have the same length.";
+
+    public final Interpreter interpreter;
+    public final double[] values;
+    private Map<String, LoxCallable> methods;
+
+    public LoxFloat64Array(Interpreter interpreter, double[] values) {
+        this.interpreter = interpreter;
+        this.values = values;
+    }
+
+    /**
+     * Errors are raised without a token, 'new' fills in its own.
+     */
+    public static LoxFloat64Array from(Interpreter interpreter, Object source) {
+        return switch (source) {
+            case Double length -> new LoxFloat64Array(interpreter, new double[wholeNumber(length, "Float64Array length must be a non-negative integer.")]);
+            case LoxFloat64Array other -> new LoxFloat64Array(interpreter, other.values.clone());
+
+            case LoxArray array -> {
+                double[] values = new double[array.elements.size()];
+
+                for (int i = 0; i < values.length; i++) {
+                    if (!(array.elements.get(i) instanceof Double d)) {
+                        throw new RuntimeError(null, "RuntimeError", "Float64Array elements must be numbers.", null);
+                    }
+
+                    values[i] = d;
+                }
+
+                yield new LoxFloat64Array(interpreter, values);
+            }
+
+            case null, default -> throw new RuntimeError(null, "RuntimeError", "Float64Array expects a length or an array of numbers.", null);
+        };
+    }
+
+    private static int wholeNumber(Object value, String message) {
+        if (!(value instanceof Double d) || d != Math.floor(d) || d < 0 || d > Integer.MAX_VALUE) {
+            throw new RuntimeError(null, "RuntimeError", message, null);
+        }
+
+        return (int) (double) d;
+    }
+
+    public double sum() {
+        double[] v = values;
+        // four independent accumulators so the adds don't wait on each other
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+
+        for (; i + 3 < v.length; i += 4) {
+            s0 += v[i];
+            s1 += v[i + 1];
+            s2 += v[i + 2];
+            s3 += v[i + 3];
+        }
+
+        for (; i < v.length; i++) s0 += v[i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public double dot(LoxFloat64Array other) {
+        double[] a = values;
+        double[] b = other.values;
+        if (a.length != b.length) throw new RuntimeError(null, "RuntimeError", LENGTH_ERROR_MSG, null);
+
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+
+        for (; i < a.length; i++) s0 += a[i] * b[i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private LoxFloat64Array operand(Object argument) {
+        if (argument instanceof LoxFloat64Array other) {
+            if (other.values.length != values.length) throw new RuntimeError(null, "RuntimeError", LENGTH_ERROR_MSG, null);
+            return other;
+        }
+
+        throw new RuntimeError(null, "RuntimeError", "Expected a Float64Array.", null);
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxFloat64Array array) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("len", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return (double) array.values.length;
+            }
+        });
+
+        methods.put("sum", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return array.sum();
+            }
+        });
+
+        methods.put("dot", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return array.dot(array.operand(arguments.getFirst()));
+            }
+        });
+
+        methods.put("min", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                if (array.values.length == 0) return null;
+
+                double min = Double.POSITIVE_INFINITY;
+                for (double v : array.values) min = Math.min(min, v);
+                return min;
+            }
+        });
+
+        methods.put("max", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                if (array.values.length == 0) return null;
+
+                double max = Double.NEGATIVE_INFINITY;
+                for (double v : array.values) max = Math.max(max, v);
+                return max;
+            }
+        });
+
+        // scale, add and fill work in place and hand the array back so calls can be chained
+        methods.put("scale", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                double factor = (double) arguments.getFirst();
+                double[] v = array.values;
+
+                for (int i = 0; i < v.length; i++) v[i] *= factor;
+                return array;
+            }
+        });
+
+        methods.put("add", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1; // a number or a Float64Array of the same length
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                double[] v = array.values;
+
+                if (arguments.getFirst() instanceof Double amount) {
+                    double d = amount;
+                    for (int i = 0; i < v.length; i++) v[i] += d;
+                } else {
+                    double[] w = array.operand(arguments.getFirst()).values;
+                    for (int i = 0; i < v.length; i++) v[i] += w[i];
+                }
+
+                return array;
+            }
+        });
+
+        methods.put("fill", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Arrays.fill(array.values, (double) arguments.getFirst());
+                return array;
+            }
+        });
+
+        methods.put("sort", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Arrays.sort(array.values);
+                return array;
+            }
+        });
+
+        methods.put("slice", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                int start = wholeNumber(arguments.getFirst(), "Slice bounds must be non-negative integers.");
+                int end = wholeNumber(arguments.get(1), "Slice bounds must be non-negative integers.");
+
+                if (start < 0 || end > array.values.length || start > end) {
+                    throw new RuntimeError(null, "RuntimeError", "Slice bounds are out of range.", null);
+                }
+
+                return new LoxFloat64Array(array.interpreter, Arrays.copyOfRange(array.values, start, end));
+            }
+        });
+
+        methods.put("to_array", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                List<Object> elements = new ArrayList<>(array.values.length);
+                for (double v : array.values) elements.add(v);
+                return new LoxArray(array.interpreter, elements);
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    private int indexOf(Token token, Object index) {
+        if (!(index instanceof Double d) || d != Math.floor(d)) {
+            throw new RuntimeError(token, "RuntimeError", "Float64Array index must be an integer.", null);
+        }
+
+        int i = (int) (double) d;
+        if (i < 0 || i >= values.length) throw new RuntimeError(token, "RuntimeError", "Float64Array index is out of bounds.", null);
+
+        return i;
+    }
+
+    @Override
+    public Object get(Token token, Object index) {
+        return values[indexOf(token, index)];
+    }
+
+    @Override
+    public void set(Token token, Object index, Object item) {
+        if (!(item instanceof Double d)) {
+            throw new RuntimeError(token, "RuntimeError", "Float64Array elements must be numbers.", null);
+        }
+
+        values[indexOf(token, index)] = d;
+    }
+
+    @Override
+    public int length() {
+        return values.length;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < values.length;
+            }
+
+            @Override
+            public Object next() {
+                if (i >= values.length) throw new NoSuchElementException();
+                return values[i++];
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "[ ", " ]");
+        for (double v : values) joiner.add(Interpreter.stringify(v));
+        return joiner.toString();
+    }
+}
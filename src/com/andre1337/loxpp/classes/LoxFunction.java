@@ -8,18 +8,9 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public record LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, boolean isAbstract, boolean isAsync) implements LoxCallable {
-  public LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
-    environment.define("self", instance);
-
-    return new LoxFunction(declaration, environment, isInitializer, isAbstract, isAsync);
-  }
-
-  public LoxFunction bind(LoxUnionInstance instance) {
-    Environment environment = new Environment(closure);
-    environment.define("self", instance);
-
-    return new LoxFunction(declaration, environment, isInitializer, isAbstract, isAsync);
+  // the method as a value, for when it escapes (`let f = obj.method;`); calls on the instance don't need it
+  public BoundMethod bind(Object self) {
+    return new BoundMethod(this, self);
   }
 
   @Override
@@ -34,8 +25,22 @@ public record LoxFunction(Stmt.Function declaration, Environment closure, boolea
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+    return invoke(interpreter, null, arguments);
+  }
+
+  /**
+   * Calls the function with `self` as the receiver. A method's frame holds it in its first slot,
+   * ahead of the parameters, so calling a method on an instance needs no environment of its own
+   * to bind it.
+   */
+  public Object invoke(Interpreter interpreter, Object self, List<Object> arguments) {
+    interpreter.countUserCall();
     Environment environment = new Environment(closure);
 
+    if (declaration.hasReceiver) {
+      environment.define("self", self);
+    }
+
     for (int i = 0; i < declaration.params.size(); i++) {
       environment.define(declaration.params.get(i).name().lexeme, arguments.get(i));
     }
@@ -47,11 +52,11 @@ public record LoxFunction(Stmt.Function declaration, Environment closure, boolea
         try {
           asyncInterpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
-          if (isInitializer) return closure.getAt(0, "self");
+          if (isInitializer) return self;
           return returnValue.value;
         }
 
-        if (isInitializer) return closure.getAt(0, "self");
+        if (isInitializer) return self;
 
         return null;
       });
@@ -59,11 +64,11 @@ public record LoxFunction(Stmt.Function declaration, Environment closure, boolea
       try {
         interpreter.executeBlock(declaration.body, environment);
       } catch (Return returnValue) {
-        if (isInitializer) return closure.getAt(0, "self");
+        if (isInitializer) return self;
         return returnValue.value;
       }
 
-      if (isInitializer) return closure.getAt(0, "self");
+      if (isInitializer) return self;
     }
 
     return null;
@@ -0,0 +1,227 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LoxHttpClient implements LoxNativeObject {
+    // shared by every request that doesn't ask for a dedicated client,
+    // so connections (and HTTP/2 streams) are pooled across the whole program
+    public static final LoxHttpClient DEFAULT = new LoxHttpClient(true, 0, 10_000, 0, true, 30_000);
+
+    private final HttpClient client;
+    private final int maxConnectionsPerHost;
+    private final long requestTimeout;
+    private final long idleTimeout;
+    private final Map<String, HostPermits> hostPermits = new ConcurrentHashMap<>();
+    private final Map<String, LoxCallable> methods;
+
+    public LoxHttpClient(boolean http2, int maxConnectionsPerHost, long connectTimeout, long requestTimeout, boolean followRedirects, long idleTimeout) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .followRedirects(followRedirects ? HttpClient.Redirect.NORMAL : HttpClient.Redirect.NEVER);
+
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+
+        this.client = builder.build();
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.requestTimeout = requestTimeout;
+        this.idleTimeout = idleTimeout;
+        this.methods = createMethods(this);
+    }
+
+    public static LoxHttpClient fromOptions(Object options) {
+        if (!(options instanceof Map<?, ?> map)) {
+            return DEFAULT;
+        }
+
+        Object http2 = option(map, "http2");
+        Object maxPerHost = option(map, "max_connections_per_host");
+        Object connectTimeout = option(map, "connect_timeout");
+        Object timeout = option(map, "timeout");
+        Object followRedirects = option(map, "follow_redirects");
+        Object idleTimeout = option(map, "idle_timeout");
+
+        return new LoxHttpClient(
+                !(http2 instanceof Boolean b) || b,
+                maxPerHost instanceof Double d ? d.intValue() : 0,
+                connectTimeout instanceof Double d ? d.longValue() : 10_000,
+                timeout instanceof Double d ? d.longValue() : 0,
+                !(followRedirects instanceof Boolean b) || b,
+                idleTimeout instanceof Double d ? d.longValue() : 30_000
+        );
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxHttpClient httpClient) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("request", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 4; // 1: url, 2: method, 3: headers, 4: body
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return httpClient.request(interpreter, arguments);
+            }
+        });
+
+        return methods;
+    }
+
+    public CompletableFuture<LoxHttpResponse> request(Interpreter interpreter, List<Object> arguments) {
+        String url = str(arguments.get(0)).trim();
+        String method = arguments.size() > 1 && arguments.get(1) != null ? str(arguments.get(1)).toUpperCase().trim() : "GET";
+        Object headers = arguments.size() > 2 ? arguments.get(2) : null;
+        Object body = arguments.size() > 3 ? arguments.get(3) : null;
+
+        return request(interpreter, url, method, headers, body);
+    }
+
+    public CompletableFuture<LoxHttpResponse> request(Interpreter interpreter, String url, String method, Object headers, Object body) {
+        HttpRequest request;
+
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("User-Agent", "lox-std-http/1.0")
+                    .method(method, publisherFor(body));
+
+            if (requestTimeout > 0) {
+                builder.timeout(Duration.ofMillis(requestTimeout));
+            }
+
+            boolean hasContentType = false;
+
+            if (headers instanceof Map<?, ?> map) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    String name = str(entry.getKey());
+                    if (name.equalsIgnoreCase("content-type")) hasContentType = true;
+
+                    builder.setHeader(name, str(entry.getValue()));
+                }
+            }
+
+            if (!hasContentType && (body instanceof Map<?, ?> || body instanceof LoxArray)) {
+                builder.setHeader("Content-Type", "application/json");
+            }
+
+            request = builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeError(null, "RuntimeError", "Invalid request to '" + url + "': " + e.getMessage(), null);
+        }
+
+        HostPermits permits = permitsFor(request.uri());
+        CompletableFuture<Void> turn = permits == null ? CompletableFuture.completedFuture(null) : permits.acquire();
+
+        // sendAsync runs on the HTTP client's own threads, nothing here blocks the common pool
+        return turn
+                .thenCompose(ignored -> client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()))
+                .handle((response, error) -> {
+                    if (error == null) {
+                        // an unread body only needs closing when it holds up the next request to its host
+                        return permits == null
+                                ? new LoxHttpResponse(interpreter, response, null, 0)
+                                : new LoxHttpResponse(interpreter, response, permits::release, idleTimeout);
+                    }
+
+                    if (permits != null) permits.release();
+
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    String reason = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+                    throw new RuntimeError(null, "RuntimeError", "Native Fetch Error: " + reason, null);
+                });
+    }
+
+    private HostPermits permitsFor(URI uri) {
+        if (maxConnectionsPerHost <= 0) return null;
+
+        String host = uri.getHost() + ":" + uri.getPort();
+        return hostPermits.computeIfAbsent(host, ignored -> new HostPermits(maxConnectionsPerHost));
+    }
+
+    /**
+     * A per-host connection limit that never parks a thread: a request over the limit gets a
+     * future that completes, in order, when an earlier response is closed.
+     */
+    private static final class HostPermits {
+        private int available;
+        private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+        HostPermits(int permits) {
+            this.available = permits;
+        }
+
+        synchronized CompletableFuture<Void> acquire() {
+            if (available > 0) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CompletableFuture<Void> turn = new CompletableFuture<>();
+            waiting.add(turn);
+            return turn;
+        }
+
+        void release() {
+            CompletableFuture<Void> next;
+
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) available++;
+            }
+
+            // the permit passes straight to the next request
+            if (next != null) next.complete(null);
+        }
+    }
+
+    private static HttpRequest.BodyPublisher publisherFor(Object body) {
+        return switch (body) {
+            case null -> HttpRequest.BodyPublishers.noBody();
+            case LoxString loxStr -> HttpRequest.BodyPublishers.ofString(loxStr.value, StandardCharsets.UTF_8);
+            case Map<?, ?> ignored -> HttpRequest.BodyPublishers.ofString(LoxJsonStringifier.stringify(body), StandardCharsets.UTF_8);
+            case LoxArray ignored -> HttpRequest.BodyPublishers.ofString(LoxJsonStringifier.stringify(body), StandardCharsets.UTF_8);
+            default -> HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8);
+        };
+    }
+
+    private static Object option(Map<?, ?> map, String key) {
+        return map.get(new LoxString(key));
+    }
+
+    private static String str(Object value) {
+        return value instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(value);
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public String toString() {
+        return "<http client>";
+    }
+}
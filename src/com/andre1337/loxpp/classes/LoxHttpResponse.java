@@ -0,0 +1,325 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+public final class LoxHttpResponse implements LoxNativeObject {
+    private static final int MAX_READ_CHUNK = 64 * 1024;
+
+    // body reads block until the server sends more, so they park virtual threads instead of pool workers
+    private static final ExecutorService READS = Executors.newVirtualThreadPerTaskExecutor();
+
+    public final int status;
+    public final LoxDict headers = new LoxDict();
+
+    private final Interpreter interpreter;
+    private final InputStream body;
+    private final BufferedReader reader;
+    private final Runnable onClose;
+    private final Map<String, LoxCallable> methods;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ReentrantLock readLock = new ReentrantLock();
+
+    // a body nobody reads for this long is closed so its per-host permit comes back, 0 for never
+    private final long idleTimeout;
+
+    // every read of the body, through this object or a json_reader over it, counts as activity
+    private final AtomicInteger activeReads = new AtomicInteger();
+    private volatile long lastActivity = System.nanoTime();
+
+    public LoxHttpResponse(Interpreter interpreter, HttpResponse<InputStream> response, Runnable onClose, long idleTimeout) {
+        this.interpreter = interpreter;
+        this.status = response.statusCode();
+        this.body = new TrackedStream(response.body());
+        this.onClose = onClose;
+        this.idleTimeout = idleTimeout;
+
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            headers.put(new LoxString(header.getKey()), new LoxString(String.join(", ", header.getValue())));
+        }
+
+        Charset charset = response.headers().firstValue("content-type").map(LoxHttpResponse::charsetOf).orElse(StandardCharsets.UTF_8);
+        this.reader = new BufferedReader(new InputStreamReader(body, charset));
+        this.methods = createMethods(this);
+
+        if (idleTimeout > 0) scheduleIdleCheck(idleTimeout);
+    }
+
+    private final class TrackedStream extends FilterInputStream {
+        TrackedStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            activeReads.incrementAndGet();
+
+            try {
+                return super.read();
+            } finally {
+                lastActivity = System.nanoTime();
+                activeReads.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            activeReads.incrementAndGet();
+
+            try {
+                return super.read(b, off, len);
+            } finally {
+                lastActivity = System.nanoTime();
+                activeReads.decrementAndGet();
+            }
+        }
+    }
+
+    private void scheduleIdleCheck(long delay) {
+        CompletableFuture.runAsync(this::checkIdle, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+    }
+
+    private void checkIdle() {
+        if (closed.get()) return;
+
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity);
+
+        if (activeReads.get() == 0 && idle >= idleTimeout) {
+            close();
+        } else {
+            scheduleIdleCheck(Math.max(1, idleTimeout - idle));
+        }
+    }
+
+    // one read at a time per body
+    private <T> CompletableFuture<T> readAsync(Supplier<T> read) {
+        return CompletableFuture.supplyAsync(() -> {
+            readLock.lock();
+
+            try {
+                return read.get();
+            } finally {
+                readLock.unlock();
+            }
+        }, READS);
+    }
+
+    private static Charset charsetOf(String contentType) {
+        for (String part : contentType.split(";")) {
+            part = part.trim();
+
+            if (part.regionMatches(true, 0, "charset=", 0, 8)) {
+                try {
+                    return Charset.forName(part.substring(8).replace("\"", "").trim());
+                } catch (Exception ignored) {
+                    break;
+                }
+            }
+        }
+
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxHttpResponse response) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("read", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1; // 1: max chars
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                if (!(arguments.getFirst() instanceof Double size) || size < 1 || size != Math.floor(size)) {
+                    throw new RuntimeError(null, "RuntimeError", "read() expects a positive whole number of characters.", null);
+                }
+
+                int max = (int) Math.min(size, MAX_READ_CHUNK);
+                return response.readAsync(() -> response.read(max));
+            }
+        });
+
+        methods.put("read_line", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return response.readAsync(response::readLine);
+            }
+        });
+
+        methods.put("text", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return response.readAsync(response::readAll);
+            }
+        });
+
+        methods.put("json", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return response.readAsync(response::readJson);
+            }
+        });
+
+        methods.put("close", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                response.close();
+                return null;
+            }
+        });
+
+        return methods;
+    }
+
+    private LoxString read(int size) {
+        if (closed.get()) return null;
+
+        try {
+            char[] buffer = new char[size];
+            int read = reader.read(buffer, 0, size);
+
+            if (read == -1) {
+                close();
+                return null;
+            }
+
+            return new LoxString(new String(buffer, 0, read));
+        } catch (IOException e) {
+            throw readError(e);
+        }
+    }
+
+    private LoxString readLine() {
+        if (closed.get()) return null;
+
+        try {
+            String line = reader.readLine();
+            if (line == null) close();
+
+            return line == null ? null : new LoxString(line);
+        } catch (IOException e) {
+            throw readError(e);
+        }
+    }
+
+    private LoxString readAll() {
+        if (closed.get()) return null;
+
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+
+            return new LoxString(sb.toString());
+        } catch (IOException e) {
+            throw readError(e);
+        } finally {
+            close();
+        }
+    }
+
+    private RuntimeError readError(IOException e) {
+        boolean timedOut = closed.get();
+        close();
+
+        return new RuntimeError(null, "RuntimeError", timedOut
+                ? "The response body was closed after going unread for " + idleTimeout + " ms."
+                : "Error reading response body: " + e.getMessage(), null);
+    }
+
+    private Object readJson() {
+        if (closed.get()) return null;
+
+        try {
+            // parse straight off the wire instead of buffering the whole body as a String first
+            return new LoxJsonReader(interpreter, reader).readValue();
+        } finally {
+            close();
+        }
+    }
+
+    public BufferedReader reader() {
+        return reader;
+    }
+
+    // not under the read lock: it has to be able to interrupt a read in progress
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+
+        try {
+            body.close();
+        } catch (IOException ignored) {
+        } finally {
+            if (onClose != null) onClose.run();
+        }
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "status" -> {
+                return (double) status;
+            }
+
+            case "headers" -> {
+                return headers;
+            }
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such property '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public String toString() {
+        return "<http response " + status + ">";
+    }
+}
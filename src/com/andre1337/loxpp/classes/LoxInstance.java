@@ -63,7 +63,7 @@ public class LoxInstance {
     if (klass.methods.containsKey("to_string") && !klass.traits.containsKey("Printable")) {
       throw new RuntimeError(klass.token, "RuntimeError", "Class must implement trait 'Printable' to declare a 'to_string' method.", null);
     } else if (klass.traits.containsKey("Printable") && klass.methods.containsKey("to_string")) {
-      Object method = klass.methods.get("to_string").bind(this).call(klass.interpreter, new ArrayList<>(), false);
+      Object method = klass.methods.get("to_string").invoke(klass.interpreter, this, new ArrayList<>());
       if (method instanceof LoxString str) {
         return str.value;
       } else {
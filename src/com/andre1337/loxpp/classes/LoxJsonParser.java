@@ -3,62 +3,158 @@ package com.andre1337.loxpp.classes;
 import com.andre1337.loxpp.interpreter.Interpreter;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxJsonParser {
     private final Interpreter interpreter;
     private final String json;
-    private int pos = 0;
+    private final int end;
+    private final boolean lazy;
+    private int pos;
 
     public LoxJsonParser(Interpreter interpreter, String json) {
+        this(interpreter, json, 0, json.length(), false);
+    }
+
+    /**
+     * With lazy set, nested objects and arrays are kept as LoxLazy values over their slice of the
+     * source text and only parsed once the program actually touches them.
+     */
+    public LoxJsonParser(Interpreter interpreter, String json, int start, int end, boolean lazy) {
         this.interpreter = interpreter;
         this.json = json;
+        this.pos = start;
+        this.end = end;
+        this.lazy = lazy;
     }
 
     public Object parse() {
         skipWhitespace();
-        if (pos >= json.length()) return null;
+        if (pos >= end) return null;
         return parseValue();
     }
 
+    static RuntimeError syntaxError(String message) {
+        return new RuntimeError(null, "RuntimeError", "Malformed JSON: " + message + ".", null);
+    }
+
+    /**
+     * Decodes an object (or an array of objects) straight into instances of the given class, each
+     * key going to its slot in the class's field layout. Keys that aren't fields are skipped.
+     */
+    public Object parseAs(LoxClass klass) {
+        skipWhitespace();
+        if (pos >= end) return null;
+
+        char c = json.charAt(pos);
+
+        if (c == '[') {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+
+            while (pos < end && json.charAt(pos) != ']') {
+                list.add(parseAs(klass));
+                skipWhitespace();
+                if (pos < end && json.charAt(pos) == ',') pos++;
+                else if (pos < end && json.charAt(pos) != ']') throw syntaxError("expected ',' or ']' after an array element");
+                skipWhitespace();
+            }
+
+            if (pos >= end) throw syntaxError("unterminated array");
+
+            pos++;
+            return new LoxArray(interpreter, list);
+        }
+
+        if (c != '{') return parseValue();
+
+        Map<String, Integer> layout = klass.fieldLayout;
+        LoxInstance instance = new LoxInstance(klass);
+        pos++;
+        skipWhitespace();
+
+        while (pos < end && json.charAt(pos) != '}') {
+            if (json.charAt(pos) != '"') throw syntaxError("expected a string key");
+            String key = parseRawString();
+            skipWhitespace();
+            if (pos >= end || json.charAt(pos) != ':') throw syntaxError("expected ':' after key '" + key + "'");
+            pos++;
+            skipWhitespace();
+
+            Integer slot = layout.get(key);
+
+            if (slot != null) {
+                instance.fields[slot] = parseValue();
+            } else {
+                skipValue();
+            }
+
+            skipWhitespace();
+            if (pos < end && json.charAt(pos) == ',') pos++;
+            else if (pos < end && json.charAt(pos) != '}') throw syntaxError("expected ',' or '}' after a value");
+            skipWhitespace();
+        }
+
+        if (pos >= end) throw syntaxError("unterminated object");
+
+        pos++;
+        return instance;
+    }
+
     private Object parseValue() {
         skipWhitespace();
+        if (pos >= end) throw syntaxError("unexpected end of input");
         char c = json.charAt(pos);
 
         if (c == '{') return parseObject();
         if (c == '[') return parseArray();
         if (c == '"') return parseString();
-        if (c == 't') { pos += 4; return true; }
-        if (c == 'f') { pos += 5; return false; }
-        if (c == 'n') { pos += 4; return null; }
+        if (c == 't') { expectLiteral("true"); return true; }
+        if (c == 'f') { expectLiteral("false"); return false; }
+        if (c == 'n') { expectLiteral("null"); return null; }
         if (Character.isDigit(c) || c == '-') return parseNumber();
 
-        throw new Error("Unexpected character in JSON: " + c);
+        throw syntaxError("unexpected character '" + c + "'");
     }
 
-    private Map<String, Object> parseObject() {
-        Map<String, Object> map = new HashMap<>();
+    private Object parseNested() {
+        skipWhitespace();
+        if (!lazy || pos >= end) return parseValue();
+
+        char c = json.charAt(pos);
+        if (c != '{' && c != '[') return parseValue();
+
+        int start = pos;
+        skipValue();
+        int stop = pos;
+
+        return new LoxLazy(() -> new LoxJsonParser(interpreter, json, start, stop, true).parse());
+    }
+
+    private LoxDict parseObject() {
+        LoxDict map = new LoxDict();
         pos++;
         skipWhitespace();
 
-        if (json.charAt(pos) == '}') {
+        if (pos < end && json.charAt(pos) == '}') {
             pos++;
             return map;
         }
 
-        while (pos < json.length()) {
+        while (pos < end) {
             skipWhitespace();
-            String key = parseRawString();
+            LoxString key = new LoxString(parseRawString());
 
             skipWhitespace();
             pos++;
-            Object value = parseValue();
+            Object value = parseNested();
 
             map.put(key, value);
 
             skipWhitespace();
+            if (pos >= end) break;
 
             char c = json.charAt(pos);
             if (c == '}') {
@@ -69,7 +165,7 @@ public class LoxJsonParser {
             pos++;
         }
 
-        return map;
+        throw syntaxError("unterminated object");
     }
 
     private LoxArray parseArray() {
@@ -77,14 +173,15 @@ public class LoxJsonParser {
         pos++;
         skipWhitespace();
 
-        if (json.charAt(pos) == ']') {
+        if (pos < end && json.charAt(pos) == ']') {
             pos++;
             return new LoxArray(interpreter, list);
         }
 
-        while (pos < json.length()) {
-            list.add(parseValue());
+        while (pos < end) {
+            list.add(parseNested());
             skipWhitespace();
+            if (pos >= end) break;
 
             char c = json.charAt(pos);
             if (c == ']') {
@@ -95,7 +192,7 @@ public class LoxJsonParser {
             pos++;
         }
 
-        return new LoxArray(interpreter, list);
+        throw syntaxError("unterminated array");
     }
 
     private LoxString parseString() {
@@ -103,26 +200,80 @@ public class LoxJsonParser {
     }
 
     private String parseRawString() {
-        pos++;
-        StringBuilder sb = new StringBuilder();
+        int start = ++pos;
 
-        while (pos < json.length() && json.charAt(pos) != '"') {
-            if (json.charAt(pos) == '\\') {
-                pos++;
+        // fast path: no escapes means the string is a straight slice of the source
+        while (pos < end) {
+            char c = json.charAt(pos);
+
+            if (c == '"') {
+                return json.substring(start, pos++);
             }
 
-            sb.append(json.charAt(pos));
+            if (c == '\\') break;
             pos++;
         }
 
-        pos++;
-        return sb.toString();
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        sb.append(json, start, pos);
+
+        while (pos < end) {
+            char c = json.charAt(pos);
+
+            if (c == '"') {
+                pos++;
+                return sb.toString();
+            }
+
+            if (c == '\\') {
+                pos = unescape(json, pos + 1, end, sb);
+                continue;
+            }
+
+            int run = pos;
+            while (pos < end && json.charAt(pos) != '"' && json.charAt(pos) != '\\') pos++;
+            sb.append(json, run, pos);
+        }
+
+        throw syntaxError("unterminated string");
+    }
+
+    /**
+     * Decodes the escape sequence starting right after a backslash, returning the position that follows it.
+     */
+    static int unescape(CharSequence src, int pos, int end, StringBuilder sb) {
+        if (pos >= end) throw syntaxError("unterminated escape sequence");
+        char c = src.charAt(pos++);
+
+        switch (c) {
+            case 'n' -> sb.append('\n');
+            case 't' -> sb.append('\t');
+            case 'r' -> sb.append('\r');
+            case 'b' -> sb.append('\b');
+            case 'f' -> sb.append('\f');
+            case 'u' -> {
+                if (pos + 4 > end) throw syntaxError("invalid unicode escape");
+                int code = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(src.charAt(pos + i), 16);
+                    if (digit < 0) throw syntaxError("invalid unicode escape");
+                    code = (code << 4) | digit;
+                }
+
+                sb.append((char) code);
+                pos += 4;
+            }
+            default -> sb.append(c); // \" \\ \/
+        }
+
+        return pos;
     }
 
     private Double parseNumber() {
         int start = pos;
 
-        while (pos < json.length()) {
+        while (pos < end) {
             char c = json.charAt(pos);
 
             if (Character.isDigit(c) || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E') {
@@ -132,11 +283,55 @@ public class LoxJsonParser {
             }
         }
 
-        return Double.parseDouble(json.substring(start, pos));
+        try {
+            return Double.parseDouble(json.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw syntaxError("invalid number '" + json.substring(start, pos) + "'");
+        }
+    }
+
+    private void expectLiteral(String literal) {
+        if (!json.startsWith(literal, pos)) {
+            throw syntaxError("unexpected token at position " + pos);
+        }
+
+        pos += literal.length();
+    }
+
+    private void skipValue() {
+        int depth = 0;
+
+        do {
+            skipWhitespace();
+            if (pos >= end) throw syntaxError("unexpected end of input");
+            char c = json.charAt(pos);
+
+            switch (c) {
+                case '{', '[' -> { depth++; pos++; }
+                case '}', ']' -> { depth--; pos++; }
+                case '"' -> skipString();
+                default -> {
+                    while (pos < end && ",:]}".indexOf(json.charAt(pos)) < 0 && !Character.isWhitespace(json.charAt(pos))) pos++;
+                }
+            }
+
+            skipWhitespace();
+            if (depth > 0 && pos < end && (json.charAt(pos) == ',' || json.charAt(pos) == ':')) pos++;
+        } while (depth > 0);
+    }
+
+    private void skipString() {
+        pos++;
+
+        while (pos < end) {
+            char c = json.charAt(pos++);
+            if (c == '\\') pos++;
+            else if (c == '"') return;
+        }
     }
 
     private void skipWhitespace() {
-        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+        while (pos < end && Character.isWhitespace(json.charAt(pos))) {
             pos++;
         }
     }
@@ -0,0 +1,531 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull parser over a character stream. Only a fixed window of the input is ever held in memory,
+ * so newline-delimited files of any size can be walked document by document.
+ */
+public class LoxJsonReader implements LoxNativeObject {
+    private static final int BEGIN_OBJECT = 0;
+    private static final int END_OBJECT = 1;
+    private static final int BEGIN_ARRAY = 2;
+    private static final int END_ARRAY = 3;
+    private static final int NAME = 4;
+    private static final int STRING = 5;
+    private static final int NUMBER = 6;
+    private static final int BOOLEAN = 7;
+    private static final int NULL = 8;
+    private static final int END_DOCUMENT = 9;
+    private static final int NONE = -1;
+
+    private static final String[] TOKEN_NAMES = {
+            "begin_object", "end_object", "begin_array", "end_array", "name",
+            "string", "number", "boolean", "null", "end_document"
+    };
+
+    // scopes on the nesting stack
+    private static final int TOP_LEVEL = 0;
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+
+    private final Interpreter interpreter;
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+    private int peeked = NONE;
+    private Object value;
+
+    private StringBuilder capture;
+    private int captureStart;
+
+    private Map<String, LoxCallable> methods;
+
+    public LoxJsonReader(Interpreter interpreter, Reader in) {
+        this.interpreter = interpreter;
+        this.in = in;
+        this.stack[0] = TOP_LEVEL;
+    }
+
+    private boolean fill(int minimum) {
+        if (limit - pos >= minimum) return true;
+
+        if (capture != null) {
+            capture.append(buffer, captureStart, pos - captureStart);
+            captureStart = 0;
+        }
+
+        System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+
+        try {
+            int read;
+
+            while (limit < minimum && (read = in.read(buffer, limit, buffer.length - limit)) != -1) {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new RuntimeError(null, "RuntimeError", "Could not read JSON input: " + e.getMessage(), null);
+        }
+
+        return limit >= minimum;
+    }
+
+    private int nextNonWhitespace() {
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos++];
+
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+
+        return -1;
+    }
+
+    private RuntimeError syntaxError(String message) {
+        return LoxJsonParser.syntaxError(message);
+    }
+
+    // whatever was expected, running out of input is the error to report
+    private RuntimeError syntaxError(int c, String message) {
+        return syntaxError(c == -1 ? "unexpected end of input" : message);
+    }
+
+    private int peek() {
+        if (peeked != NONE) return peeked;
+
+        int scope = stack[depth - 1];
+        int c;
+
+        switch (scope) {
+            case EMPTY_ARRAY -> stack[depth - 1] = NONEMPTY_ARRAY;
+
+            case NONEMPTY_ARRAY -> {
+                c = nextNonWhitespace();
+                if (c == ']') return peeked = END_ARRAY;
+                if (c != ',') throw syntaxError(c, "expected ',' or ']' in array");
+            }
+
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                stack[depth - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c == '}') return peeked = END_OBJECT;
+                    if (c != ',') throw syntaxError(c, "expected ',' or '}' in object");
+                    c = nextNonWhitespace();
+                }
+
+                if (c == '"') return peeked = NAME;
+                if (c == '}' && scope == EMPTY_OBJECT) return peeked = END_OBJECT;
+                throw syntaxError(c, "expected a property name");
+            }
+
+            case DANGLING_NAME -> {
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                c = nextNonWhitespace();
+                if (c != ':') throw syntaxError(c, "expected ':' after property name");
+            }
+        }
+
+        c = nextNonWhitespace();
+
+        switch (c) {
+            case -1 -> {
+                if (scope != TOP_LEVEL) throw syntaxError("unexpected end of input");
+                return peeked = END_DOCUMENT;
+            }
+
+            case ']' -> {
+                if (scope != EMPTY_ARRAY) throw syntaxError("unexpected ']'");
+                return peeked = END_ARRAY;
+            }
+
+            case '{' -> {
+                return peeked = BEGIN_OBJECT;
+            }
+
+            case '[' -> {
+                return peeked = BEGIN_ARRAY;
+            }
+
+            case '"' -> {
+                return peeked = STRING;
+            }
+
+            case 't', 'f' -> {
+                pos--;
+                return peeked = BOOLEAN;
+            }
+
+            case 'n' -> {
+                pos--;
+                return peeked = NULL;
+            }
+
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return peeked = NUMBER;
+                }
+
+                throw syntaxError("unexpected character '" + (char) c + "'");
+            }
+        }
+    }
+
+    /**
+     * Consumes the next token, leaving its scalar payload (if any) in {@code value}.
+     */
+    private int consume() {
+        int token = peek();
+        peeked = NONE;
+        value = null;
+
+        switch (token) {
+            case BEGIN_OBJECT -> push(EMPTY_OBJECT);
+            case BEGIN_ARRAY -> push(EMPTY_ARRAY);
+            case END_OBJECT, END_ARRAY -> depth--;
+            case NAME, STRING -> value = readString();
+            case NUMBER -> value = readNumber();
+            case BOOLEAN -> {
+                if (readLiteral("true")) value = Boolean.TRUE;
+                else if (readLiteral("false")) value = Boolean.FALSE;
+                else throw syntaxError("unexpected literal");
+            }
+
+            case NULL -> {
+                if (!readLiteral("null")) throw syntaxError("unexpected literal");
+            }
+        }
+
+        return token;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = scope;
+    }
+
+    private boolean readLiteral(String literal) {
+        if (!fill(literal.length())) return false;
+
+        for (int i = 0; i < literal.length(); i++) {
+            if (buffer[pos + i] != literal.charAt(i)) return false;
+        }
+
+        pos += literal.length();
+        return true;
+    }
+
+    private String readString() {
+        StringBuilder sb = null;
+
+        while (true) {
+            int start = pos;
+
+            while (pos < limit) {
+                char c = buffer[pos];
+
+                if (c == '"') {
+                    String chunk = new String(buffer, start, pos++ - start);
+                    return sb == null ? chunk : sb.append(chunk).toString();
+                }
+
+                if (c == '\\') break;
+                pos++;
+            }
+
+            if (sb == null) sb = new StringBuilder(Math.max(16, (pos - start) * 2));
+            sb.append(buffer, start, pos - start);
+
+            if (pos < limit) {
+                pos++;
+                fill(5); // the longest escape, \\uXXXX without the backslash
+                pos = LoxJsonParser.unescape(CharBuffer.wrap(buffer, 0, limit), pos, limit, sb);
+            } else if (!fill(1)) {
+                throw syntaxError("unterminated string");
+            }
+        }
+    }
+
+    private void skipString() {
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos++];
+
+            if (c == '"') return;
+            if (c == '\\' && (pos < limit || fill(1))) pos++;
+        }
+
+        throw syntaxError("unterminated string");
+    }
+
+    private Double readNumber() {
+        StringBuilder sb = new StringBuilder(24);
+
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos];
+
+            if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E') {
+                sb.append(c);
+                pos++;
+            } else {
+                break;
+            }
+        }
+
+        try {
+            return Double.parseDouble(sb.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("invalid number '" + sb + "'");
+        }
+    }
+
+    public boolean hasNext() {
+        int token = peek();
+        return token != END_OBJECT && token != END_ARRAY && token != END_DOCUMENT;
+    }
+
+    public void skipValue() {
+        int nesting = 0;
+
+        while (true) {
+            int token = peek();
+            if (token == END_DOCUMENT) return;
+
+            if (token == NAME) {
+                peeked = NONE;
+                skipString();
+                continue;
+            }
+
+            if (token == STRING) {
+                peeked = NONE;
+                skipString();
+            } else {
+                consume();
+                if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) nesting++;
+                else if (token == END_OBJECT || token == END_ARRAY) nesting--;
+            }
+
+            if (nesting <= 0) return;
+        }
+    }
+
+    public Object readValue() {
+        int token = consume();
+
+        switch (token) {
+            case BEGIN_OBJECT -> {
+                LoxDict map = new LoxDict();
+
+                while (hasNext()) {
+                    consume();
+                    LoxString key = new LoxString((String) value);
+                    map.put(key, readValue());
+                }
+
+                consume();
+                return map;
+            }
+
+            case BEGIN_ARRAY -> {
+                List<Object> list = new ArrayList<>();
+
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+
+                consume();
+                return new LoxArray(interpreter, list);
+            }
+
+            case STRING -> {
+                return new LoxString((String) value);
+            }
+
+            case NUMBER, BOOLEAN, NULL -> {
+                return value;
+            }
+
+            default -> throw syntaxError("expected a value but found " + TOKEN_NAMES[token]);
+        }
+    }
+
+    /**
+     * Reads the next value as raw text and defers parsing it until it is first used.
+     */
+    public Object readLazy() {
+        int token = peek();
+        if (token != BEGIN_OBJECT && token != BEGIN_ARRAY) return readValue();
+
+        // the opening bracket was already consumed by peek()
+        capture = new StringBuilder().append(token == BEGIN_OBJECT ? '{' : '[');
+        captureStart = pos;
+        String text;
+
+        try {
+            skipValue();
+            text = capture.append(buffer, captureStart, pos - captureStart).toString();
+        } finally {
+            capture = null;
+        }
+
+        return new LoxLazy(() -> new LoxJsonParser(interpreter, text, 0, text.length(), true).parse());
+    }
+
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException ignored) {}
+    }
+
+    private Object wrap(Object scalar) {
+        return scalar instanceof String str ? new LoxString(str) : scalar;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxJsonReader reader) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("next_token", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxString(TOKEN_NAMES[reader.consume()]);
+            }
+        });
+
+        methods.put("peek", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxString(TOKEN_NAMES[reader.peek()]);
+            }
+        });
+
+        methods.put("has_next", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return reader.hasNext();
+            }
+        });
+
+        methods.put("skip_value", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                reader.skipValue();
+                return null;
+            }
+        });
+
+        methods.put("read_value", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return reader.readValue();
+            }
+        });
+
+        methods.put("read_lazy", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return reader.readLazy();
+            }
+        });
+
+        methods.put("next_document", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return reader.peek() == END_DOCUMENT ? null : reader.readValue();
+            }
+        });
+
+        methods.put("close", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                reader.close();
+                return null;
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (name.lexeme.equals("value")) {
+            return wrap(value);
+        }
+
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public String toString() {
+        return "<json reader>";
+    }
+}
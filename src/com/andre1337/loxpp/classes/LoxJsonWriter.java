@@ -0,0 +1,299 @@
+package com.andre1337.loxpp.classes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializes Lox values as UTF-8 JSON straight into a byte buffer. With a sink attached the buffer
+ * is drained whenever it fills up, so a large array never exists in memory as a whole.
+ */
+public class LoxJsonWriter {
+    private static final int FLUSH_THRESHOLD = 16 * 1024;
+    private static final int MAX_CACHED_KEYS = 4096;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+    // `"key":` already escaped and encoded, objects from the same API tend to repeat their keys
+    private static final Map<String, byte[]> keyCache = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<LoxJsonWriter> local = ThreadLocal.withInitial(LoxJsonWriter::new);
+
+    private final OutputStream sink;
+    private byte[] buffer = new byte[8192];
+    private int count = 0;
+    private LoxJsonWriter keyWriter; // keys that aren't cached yet
+
+    public LoxJsonWriter() {
+        this(null);
+    }
+
+    public LoxJsonWriter(OutputStream sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * A per-thread writer with its buffer kept between uses, for callers that want a String back.
+     */
+    public static LoxJsonWriter local() {
+        LoxJsonWriter writer = local.get();
+        writer.reset();
+        return writer;
+    }
+
+    public void reset() {
+        count = 0;
+
+        if (buffer.length > 1024 * 1024) {
+            buffer = new byte[8192];
+        }
+    }
+
+    public LoxJsonWriter write(Object value) {
+        switch (value) {
+            case null -> writeBytes(NULL);
+            case LoxString loxStr -> writeString(loxStr.value);
+            case String str -> writeString(str);
+            case Double d -> writeNumber(d);
+            case Boolean b -> writeBytes(b ? TRUE : FALSE);
+            case LoxLazy lazy -> write(lazy.get());
+
+            case Map<?, ?> map -> {
+                writeByte('{');
+                boolean first = true;
+
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (!first) writeByte(',');
+                    first = false;
+
+                    writeKey(entry.getKey() instanceof LoxString loxStr ? loxStr.value : String.valueOf(entry.getKey()));
+                    write(entry.getValue());
+                }
+
+                writeByte('}');
+            }
+
+            case LoxInstance instance when !(instance instanceof LoxClass) && instance.klass != null -> {
+                String[] names = instance.klass.slotNames();
+                writeByte('{');
+
+                for (int i = 0; i < instance.fields.length && i < names.length; i++) {
+                    if (i > 0) writeByte(',');
+
+                    writeKey(names[i]);
+                    write(instance.fields[i]);
+                }
+
+                writeByte('}');
+            }
+
+            case LoxArray array -> {
+                writeByte('[');
+
+                for (int i = 0; i < array.elements.size(); i++) {
+                    if (i > 0) writeByte(',');
+                    write(array.elements.get(i));
+
+                    if (sink != null && count >= FLUSH_THRESHOLD) drain();
+                }
+
+                writeByte(']');
+            }
+
+            case LoxFloat64Array array -> {
+                writeByte('[');
+
+                for (int i = 0; i < array.values.length; i++) {
+                    if (i > 0) writeByte(',');
+                    writeNumber(array.values[i]);
+
+                    if (sink != null && count >= FLUSH_THRESHOLD) drain();
+                }
+
+                writeByte(']');
+            }
+
+            // JSON has no binary type; base64 is what the other side will expect
+            case LoxBytes bytes -> writeString(java.util.Base64.getEncoder().encodeToString(bytes.bytes));
+
+            default -> writeString(value.toString());
+        }
+
+        return this;
+    }
+
+    private void writeKey(String key) {
+        byte[] encoded = keyCache.get(key);
+
+        if (encoded == null) {
+            // encoded on the side, a drain of this buffer can't cut the key short
+            if (keyWriter == null) keyWriter = new LoxJsonWriter();
+            keyWriter.reset();
+            keyWriter.writeString(key);
+            keyWriter.writeByte(':');
+            encoded = keyWriter.toByteArray();
+
+            if (keyCache.size() < MAX_CACHED_KEYS) {
+                keyCache.put(key, encoded);
+            }
+        }
+
+        writeBytes(encoded);
+    }
+
+    private void writeNumber(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            writeBytes(NULL);
+            return;
+        }
+
+        long whole = (long) d;
+
+        if (whole == d && Math.abs(whole) < 1L << 53) {
+            writeLong(whole);
+            return;
+        }
+
+        String text = Double.toString(d);
+        ensure(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            buffer[count++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void writeLong(long value) {
+        ensure(20);
+
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        count = end;
+    }
+
+    private void writeString(String str) {
+        int length = str.length();
+        ensure(length + 2);
+        buffer[count++] = '"';
+
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if (count == buffer.length) ensure(1);
+                buffer[count++] = (byte) c;
+                continue;
+            }
+
+            ensure(12);
+
+            if (c < 0x80) {
+                buffer[count++] = '\\';
+
+                switch (c) {
+                    case '"' -> buffer[count++] = '"';
+                    case '\\' -> buffer[count++] = '\\';
+                    case '\n' -> buffer[count++] = 'n';
+                    case '\r' -> buffer[count++] = 'r';
+                    case '\t' -> buffer[count++] = 't';
+                    case '\b' -> buffer[count++] = 'b';
+                    case '\f' -> buffer[count++] = 'f';
+                    default -> {
+                        buffer[count++] = 'u';
+                        buffer[count++] = '0';
+                        buffer[count++] = '0';
+                        buffer[count++] = HEX[c >> 4];
+                        buffer[count++] = HEX[c & 0xF];
+                    }
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | (cp >> 18));
+                buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        ensure(1);
+        buffer[count++] = '"';
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buffer[count++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensure(int extra) {
+        if (count + extra <= buffer.length) return;
+
+        if (sink != null && count >= FLUSH_THRESHOLD) {
+            drain();
+            if (count + extra <= buffer.length) return;
+        }
+
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+    }
+
+    private void drain() {
+        try {
+            sink.write(buffer, 0, count);
+            count = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void flush() {
+        if (sink == null) return;
+
+        drain();
+
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,7 @@
+package com.andre1337.loxpp.classes;
+
+/**
+ * A constructor for a type implemented in Java that scripts can still instantiate with 'new'.
+ */
+public interface LoxNativeClass extends LoxCallable {
+}
@@ -0,0 +1,7 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.lexer.Token;
+
+public interface LoxNativeObject {
+    Object get(Token name);
+}
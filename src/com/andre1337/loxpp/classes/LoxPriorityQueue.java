@@ -0,0 +1,246 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.util.*;
+
+/**
+ * std.Collections.PriorityQueue, a binary min-heap. Without a comparator numbers and strings are
+ * ordered natively and instances through their Comparable '_lt'; a comparator (a, b) returns a
+ * negative number (or true) when a should come out first.
+ */
+public class LoxPriorityQueue implements LoxNativeObject, Iterable<Object> {
+    private static final String EMPTY_ERROR_MSG = "Priority queue is empty.";
+
+    public final Interpreter interpreter;
+    private final LoxCallable comparator;
+    private Object[] heap = new Object[16];
+    private int size = 0;
+    private Map<String, LoxCallable> methods;
+
+    public LoxPriorityQueue(Interpreter interpreter, LoxCallable comparator) {
+        this.interpreter = interpreter;
+        this.comparator = comparator;
+    }
+
+    private boolean less(Object a, Object b) {
+        if (comparator != null) {
+            Object result = comparator.call(interpreter, Arrays.asList(a, b), false);
+            return result instanceof Boolean bool ? bool : result instanceof Double d && d < 0;
+        }
+
+        if (a instanceof Double x && b instanceof Double y) return x < y;
+        if (a instanceof LoxString x && b instanceof LoxString y) return x.value.compareTo(y.value) < 0;
+
+        if (a instanceof LoxInstance instance && !(a instanceof LoxClass)) {
+            LoxFunction lt = instance.klass.findMethod("_lt");
+
+            if (lt != null) {
+                return Boolean.TRUE.equals(lt.invoke(interpreter, instance, Collections.singletonList(b)));
+            }
+        }
+
+        throw new RuntimeError(
+                null,
+                "RuntimeError",
+                "Cannot order " + Interpreter.stringify(a) + " and " + Interpreter.stringify(b) + ".",
+                "Pass a comparator to the priority queue or implement the 'Comparable' trait."
+        );
+    }
+
+    public void push(Object item) {
+        if (item instanceof String str) item = new LoxString(str);
+        if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+
+        int i = size++;
+
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(item, heap[parent])) break;
+
+            heap[i] = heap[parent];
+            i = parent;
+        }
+
+        heap[i] = item;
+    }
+
+    public Object pop() {
+        if (size == 0) throw new RuntimeError(null, "RuntimeError", EMPTY_ERROR_MSG, null);
+
+        Object top = heap[0];
+        Object last = heap[--size];
+        heap[size] = null;
+
+        if (size > 0) siftDown(last);
+        return top;
+    }
+
+    private void siftDown(Object item) {
+        int i = 0;
+        int half = size >>> 1;
+
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && less(heap[child + 1], heap[child])) child++;
+            if (!less(heap[child], item)) break;
+
+            heap[i] = heap[child];
+            i = child;
+        }
+
+        heap[i] = item;
+    }
+
+    /**
+     * The elements in the order pop would hand them out, the queue itself is left untouched.
+     */
+    private List<Object> drainCopy() {
+        LoxPriorityQueue copy = new LoxPriorityQueue(interpreter, comparator);
+        copy.heap = Arrays.copyOf(heap, Math.max(size, 1));
+        copy.size = size;
+
+        List<Object> ordered = new ArrayList<>(size);
+        while (copy.size > 0) ordered.add(copy.pop());
+
+        return ordered;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxPriorityQueue queue) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("push", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                queue.push(arguments.getFirst());
+                return null;
+            }
+        });
+
+        methods.put("pop", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return queue.pop();
+            }
+        });
+
+        methods.put("peek", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                if (queue.size == 0) throw new RuntimeError(null, "RuntimeError", EMPTY_ERROR_MSG, null);
+                return queue.heap[0];
+            }
+        });
+
+        methods.put("size", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return (double) queue.size;
+            }
+        });
+
+        methods.put("is_empty", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return queue.size == 0;
+            }
+        });
+
+        methods.put("clear", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Arrays.fill(queue.heap, 0, queue.size, null);
+                queue.size = 0;
+                return null;
+            }
+        });
+
+        methods.put("each", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
+
+                for (Object item : queue.drainCopy()) {
+                    callback.call(interpreter, Collections.singletonList(item), false);
+                }
+
+                return null;
+            }
+        });
+
+        methods.put("to_array", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxArray(queue.interpreter, queue.drainCopy());
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return drainCopy().iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "[ ", " ]");
+        for (Object item : drainCopy()) joiner.add(Interpreter.stringify(item));
+        return joiner.toString();
+    }
+}
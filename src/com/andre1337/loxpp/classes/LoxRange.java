@@ -0,0 +1,157 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.util.*;
+
+/**
+ * The value of `a..b`. It answers to the same methods as the stdlib Range class (and prints the
+ * same way), but for-in walks it with a Java counter instead of calling has_next and next on an
+ * instance for every element.
+ */
+public class LoxRange implements LoxNativeObject, Iterable<Object> {
+    public final double start;
+    public final double end;
+    public double current;
+    private Map<String, LoxCallable> methods;
+
+    public LoxRange(double start, double end) {
+        this.start = start;
+        this.end = end;
+        this.current = start;
+    }
+
+    public boolean hasNext() {
+        return current <= end;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxRange range) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("next", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                if (!range.hasNext()) return null;
+                return range.current++;
+            }
+        });
+
+        methods.put("has_next", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return range.hasNext();
+            }
+        });
+
+        methods.put("size", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return range.end - range.start;
+            }
+        });
+
+        methods.put("is_empty", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return range.start >= range.end;
+            }
+        });
+
+        methods.put("each", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
+
+                for (double value = range.current; value < range.end; value++) {
+                    callback.call(interpreter, List.of(value), false);
+                }
+
+                return null;
+            }
+        });
+
+        methods.put("to_string", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxString(range.toString());
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "start":
+                return start;
+            case "end":
+                return end;
+            case "current":
+                return current;
+        }
+
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    // like Range, iterating consumes it
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return LoxRange.this.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                if (!LoxRange.this.hasNext()) throw new NoSuchElementException();
+                return current++;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "[" + Interpreter.stringify(start) + ":" + Interpreter.stringify(end) + "]";
+    }
+}
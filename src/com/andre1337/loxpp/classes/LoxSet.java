@@ -0,0 +1,217 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.util.*;
+
+/**
+ * std.Collections.Set, a hash set that remembers insertion order. Elements are keyed the same way
+ * as std.Collections.Map keys, so 1 and "1" are different elements.
+ */
+public class LoxSet implements LoxNativeObject, Iterable<Object> {
+    public final Interpreter interpreter;
+    public final Set<Object> elements;
+    private Map<String, LoxCallable> methods;
+
+    public LoxSet(Interpreter interpreter) {
+        this(interpreter, new LinkedHashSet<>());
+    }
+
+    private LoxSet(Interpreter interpreter, Set<Object> elements) {
+        this.interpreter = interpreter;
+        this.elements = elements;
+    }
+
+    private static Set<Object> otherElements(Object other) {
+        if (other instanceof LoxSet set) return set.elements;
+
+        Set<Object> elements = new LinkedHashSet<>();
+        if (other instanceof LoxArray array) {
+            for (Object element : array.elements) elements.add(Interpreter.copyKey(Interpreter.mapKey(element)));
+        }
+
+        return elements;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxSet set) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("add", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return set.elements.add(Interpreter.copyKey(Interpreter.mapKey(arguments.getFirst())));
+            }
+        });
+
+        methods.put("has", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return set.elements.contains(Interpreter.mapKey(arguments.getFirst()));
+            }
+        });
+
+        methods.put("remove", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return set.elements.remove(Interpreter.mapKey(arguments.getFirst()));
+            }
+        });
+
+        methods.put("size", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return (double) set.elements.size();
+            }
+        });
+
+        methods.put("is_empty", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return set.elements.isEmpty();
+            }
+        });
+
+        methods.put("clear", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                set.elements.clear();
+                return null;
+            }
+        });
+
+        methods.put("each", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
+
+                for (Object element : set.elements.toArray()) {
+                    callback.call(interpreter, Collections.singletonList(Interpreter.copyKey(element)), false);
+                }
+
+                return null;
+            }
+        });
+
+        methods.put("to_array", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                List<Object> elements = new ArrayList<>(set.elements.size());
+                for (Object element : set.elements) elements.add(Interpreter.copyKey(element));
+                return new LoxArray(set.interpreter, elements);
+            }
+        });
+
+        methods.put("union_with", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Set<Object> result = new LinkedHashSet<>(set.elements);
+                result.addAll(otherElements(arguments.getFirst()));
+                return new LoxSet(set.interpreter, result);
+            }
+        });
+
+        methods.put("intersection", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Set<Object> result = new LinkedHashSet<>(set.elements);
+                result.retainAll(otherElements(arguments.getFirst()));
+                return new LoxSet(set.interpreter, result);
+            }
+        });
+
+        methods.put("difference", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Set<Object> result = new LinkedHashSet<>(set.elements);
+                result.removeAll(otherElements(arguments.getFirst()));
+                return new LoxSet(set.interpreter, result);
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        // a snapshot, so the loop body may add or remove elements
+        Object[] snapshot = elements.toArray();
+        for (int i = 0; i < snapshot.length; i++) snapshot[i] = Interpreter.copyKey(snapshot[i]);
+        return Arrays.asList(snapshot).iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "{ ", " }");
+        for (Object element : elements) joiner.add(Interpreter.stringify(element));
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,141 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Sorting for arrays. Keys are extracted once per element (decorate-sort-undecorate) and compared
+ * as primitives when they are all numbers or all strings; the sort itself is the JDK's stable
+ * TimSort, or its parallel merge sort for big arrays when no Lox code runs during comparisons.
+ */
+public final class LoxSort {
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    private LoxSort() {}
+
+    private record Keyed(double number, String string, Object key, Object value) {}
+
+    /**
+     * Null sorts first, then numbers, booleans and everything else by its string form.
+     */
+    public static int compareValues(Object a, Object b) {
+        if (a == null || b == null) return a == b ? 0 : a == null ? -1 : 1;
+
+        if (a instanceof Double x && b instanceof Double y) return Double.compare(x, y);
+        if (a instanceof Boolean x && b instanceof Boolean y) return Boolean.compare(x, y);
+
+        return text(a).compareTo(text(b));
+    }
+
+    private static String text(Object value) {
+        return value instanceof LoxString loxStr ? loxStr.value : value instanceof String str ? str : Interpreter.stringify(value);
+    }
+
+    /**
+     * Sorts the list in place by the key each element maps to.
+     */
+    public static void sortBy(List<Object> elements, Function<Object, Object> keyOf, boolean ascending) {
+        int n = elements.size();
+        Keyed[] keyed = new Keyed[n];
+        boolean numbers = true;
+        boolean strings = true;
+
+        for (int i = 0; i < n; i++) {
+            Object value = elements.get(i);
+            Object key = keyOf.apply(value);
+
+            if (key instanceof LoxLazy lazy) key = lazy.get();
+
+            double number = 0;
+            String string = null;
+
+            if (key instanceof Double d) {
+                number = d;
+                strings = false;
+            } else if (key instanceof LoxString || key instanceof String) {
+                string = text(key);
+                numbers = false;
+            } else {
+                numbers = false;
+                strings = false;
+            }
+
+            keyed[i] = new Keyed(number, string, key, value);
+        }
+
+        Comparator<Keyed> comparator = numbers
+                ? (a, b) -> Double.compare(a.number, b.number)
+                : strings
+                ? (a, b) -> a.string.compareTo(b.string)
+                : (a, b) -> compareValues(a.key, b.key);
+
+        if (!ascending) comparator = comparator.reversed();
+
+        // the keys are all extracted by now, so the comparator is plain Java and safe to fork
+        if (n >= PARALLEL_THRESHOLD) {
+            Arrays.parallelSort(keyed, comparator);
+        } else {
+            Arrays.sort(keyed, comparator);
+        }
+
+        for (int i = 0; i < n; i++) {
+            elements.set(i, keyed[i].value);
+        }
+    }
+
+    /**
+     * The key extractor for sort_by: a function of the element, or a field / dictionary key name.
+     */
+    public static Function<Object, Object> keyExtractor(Interpreter interpreter, Object key) {
+        if (key instanceof LoxCallable function) {
+            return element -> function.call(interpreter, Collections.singletonList(element), false);
+        }
+
+        if (key instanceof LoxString || key instanceof String) {
+            LoxString name = Interpreter.dictKey(key);
+
+            return element -> switch (element) {
+                case Map<?, ?> map -> map.get(name);
+
+                case LoxInstance instance when !(instance instanceof LoxClass) -> {
+                    Integer slot = instance.klass.fieldLayout.get(name.value);
+                    yield slot == null ? null : instance.fields[slot];
+                }
+
+                case null, default -> null;
+            };
+        }
+
+        throw new RuntimeError(null, "RuntimeError", "sort_by expects a key function or key name.", null);
+    }
+
+    /**
+     * Sorts with a Lox comparator (a, b) returning a number, or in natural order when there is none.
+     */
+    public static void sort(Interpreter interpreter, List<Object> elements, LoxCallable comparator) {
+        if (comparator == null) {
+            sortBy(elements, Function.identity(), true);
+            return;
+        }
+
+        try {
+            elements.sort((a, b) -> {
+                Object result = comparator.call(interpreter, Arrays.asList(a, b), false);
+
+                if (!(result instanceof Double d)) {
+                    throw new RuntimeError(null, "RuntimeError", "Comparator must return a number.", null);
+                }
+
+                return (int) Math.signum(d);
+            });
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeError(null, "RuntimeError", "Comparator is inconsistent.", "It must return a negative number, zero or a positive number consistently.");
+        }
+    }
+}
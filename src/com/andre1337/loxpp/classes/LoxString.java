@@ -10,11 +10,11 @@ import java.util.Map;
 
 public class LoxString {
     public String value;
-    private Map<String, LoxCallable> methods = new HashMap<>();
+    // built on first method access, most strings (dict keys, JSON values) never need it
+    private Map<String, LoxCallable> methods;
 
     public LoxString(String value) {
         this.value = value;
-        this.methods = createMethods(this);
     }
 
     private String unpack_type(Object type) {
@@ -281,6 +281,10 @@ public class LoxString {
     }
 
     public LoxCallable getMethod(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
         if (methods.containsKey(name.lexeme)) {
             return methods.get(name.lexeme);
         }
@@ -0,0 +1,133 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * std.StringBuilder, a growable buffer for building strings piece by piece. `res += piece` copies
+ * everything built so far on every step; appending here is amortized O(1) and the string is only
+ * materialized once, by to_string.
+ */
+public class LoxStringBuilder implements LoxNativeObject {
+    private final StringBuilder buffer;
+    private Map<String, LoxCallable> methods;
+
+    public LoxStringBuilder(String initial) {
+        this.buffer = new StringBuilder(Math.max(16, initial.length() * 2)).append(initial);
+    }
+
+    public LoxStringBuilder append(Object value) {
+        switch (value) {
+            case LoxString loxStr -> buffer.append(loxStr.value);
+            case String str -> buffer.append(str);
+            case LoxStringBuilder other -> buffer.append(other.buffer);
+            case null, default -> buffer.append(Interpreter.stringify(value));
+        }
+
+        return this;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxStringBuilder builder) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("append", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // any number of values, appended in order
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                for (Object argument : arguments) builder.append(argument);
+                return builder;
+            }
+        });
+
+        methods.put("append_line", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // optional value
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                if (!arguments.isEmpty()) builder.append(arguments.getFirst());
+                builder.buffer.append('\n');
+                return builder;
+            }
+        });
+
+        methods.put("len", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return (double) builder.buffer.length();
+            }
+        });
+
+        methods.put("is_empty", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return builder.buffer.isEmpty();
+            }
+        });
+
+        methods.put("clear", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                builder.buffer.setLength(0);
+                return builder;
+            }
+        });
+
+        methods.put("to_string", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxString(builder.buffer.toString());
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,1035 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * std.Data.Table, a columnar table whose numbers, booleans and string codes live in direct
+ * ByteBuffers, off the Java heap and out of the garbage collector's way. Strings are dictionary
+ * encoded, so a column of repeated labels stores each label once.
+ * <p>
+ * Tables are immutable: select, filter, where and sort_by share the parent's columns and only
+ * carry a new selection of row numbers; group_by builds a fresh table.
+ */
+public class LoxTable implements LoxNativeObject, Iterable<Object> {
+    public final Interpreter interpreter;
+    private final Map<String, Column> columns;
+    private final int[] rows; // physical row numbers in table order, null for all of them
+    private final int rowCount;
+    private Map<String, LoxCallable> methods;
+
+    private LoxTable(Interpreter interpreter, Map<String, Column> columns, int[] rows, int rowCount) {
+        this.interpreter = interpreter;
+        this.columns = columns;
+        this.rows = rows;
+        this.rowCount = rowCount;
+    }
+
+    private int physical(int i) {
+        return rows == null ? i : rows[i];
+    }
+
+    private LoxTable withRows(int[] selection) {
+        return new LoxTable(interpreter, columns, selection, selection.length);
+    }
+
+    private Column column(Object name) {
+        String key = name instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(name);
+        Column column = columns.get(key);
+        if (column == null) throw new RuntimeError(null, "RuntimeError", "Table has no column '" + key + "'.", null);
+
+        return column;
+    }
+
+    private abstract static class Column {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        final int width;
+        ByteBuffer data;
+        int size = 0;
+
+        Column(int width) {
+            this.width = width;
+            this.data = ByteBuffer.allocateDirect(INITIAL_CAPACITY * width).order(ByteOrder.nativeOrder());
+        }
+
+        void reserve() {
+            if ((size + 1) * width <= data.capacity()) return;
+
+            ByteBuffer bigger = ByteBuffer.allocateDirect(data.capacity() * 2).order(ByteOrder.nativeOrder());
+            bigger.put(data.duplicate().clear().limit(size * width));
+            data = bigger;
+        }
+
+        abstract boolean accepts(Object value);
+
+        abstract void append(Object value);
+
+        abstract Object get(int row);
+
+        abstract boolean isNull(int row);
+
+        // orders two rows that both hold a value, without boxing them
+        abstract int compare(int a, int b);
+    }
+
+    private static final class NumberColumn extends Column {
+        private final BitSet nulls = new BitSet();
+
+        NumberColumn() {
+            super(Double.BYTES);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return value == null || value instanceof Double;
+        }
+
+        @Override
+        void append(Object value) {
+            reserve();
+            if (value == null) nulls.set(size);
+            data.putDouble(size * Double.BYTES, value == null ? 0 : (double) value);
+            size++;
+        }
+
+        double number(int row) {
+            return data.getDouble(row * Double.BYTES);
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls.get(row) ? null : number(row);
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Double.compare(number(a), number(b));
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+        BooleanColumn() {
+            super(1);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return value == null || value instanceof Boolean;
+        }
+
+        @Override
+        void append(Object value) {
+            reserve();
+            data.put(size++, value == null ? (byte) -1 : (Boolean) value ? (byte) 1 : 0);
+        }
+
+        @Override
+        Object get(int row) {
+            byte b = data.get(row);
+            return b < 0 ? null : b == 1;
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return data.get(row) < 0;
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Byte.compare(data.get(a), data.get(b));
+        }
+    }
+
+    private static final class StringColumn extends Column {
+        private final List<LoxString> dictionary = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private int[] ranks; // dictionary code -> sorted position, rebuilt when the dictionary grows
+
+        StringColumn() {
+            super(Integer.BYTES);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return true;
+        }
+
+        @Override
+        void append(Object value) {
+            reserve();
+            int code = -1;
+
+            if (value != null) {
+                String str = value instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(value);
+                code = codes.computeIfAbsent(str, s -> {
+                    dictionary.add(new LoxString(s));
+                    return dictionary.size() - 1;
+                });
+            }
+
+            data.putInt(size * Integer.BYTES, code);
+            size++;
+        }
+
+        int code(int row) {
+            return data.getInt(row * Integer.BYTES);
+        }
+
+        int codeOf(Object value) {
+            Integer code = codes.get(value instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(value));
+            return code == null ? -2 : code;
+        }
+
+        @Override
+        Object get(int row) {
+            int code = code(row);
+            return code < 0 ? null : dictionary.get(code);
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return code(row) < 0;
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Integer.compare(rank(a), rank(b));
+        }
+
+        // the position of the row's string among the dictionary's strings in sorted order
+        private int rank(int row) {
+            if (ranks == null || ranks.length != dictionary.size()) {
+                Integer[] order = new Integer[dictionary.size()];
+                for (int i = 0; i < order.length; i++) order[i] = i;
+                Arrays.sort(order, Comparator.comparing(i -> dictionary.get(i).value));
+
+                ranks = new int[order.length];
+                for (int i = 0; i < order.length; i++) ranks[order[i]] = i;
+            }
+
+            int code = code(row);
+            return code < 0 ? -1 : ranks[code];
+        }
+    }
+
+    /**
+     * Appends rows column by column. A column's type comes from its first non-null value; a column
+     * that later receives a value of another type is turned into a string column.
+     */
+    private static final class Builder {
+        final Map<String, Column> columns = new LinkedHashMap<>();
+        final List<Column> byIndex = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final Map<String, Integer> indices = new HashMap<>();
+        int rows = 0;
+
+        int columnIndex(String name) {
+            Integer index = indices.get(name);
+            if (index != null) return index;
+
+            names.add(name);
+            byIndex.add(null);
+            indices.put(name, names.size() - 1);
+            return names.size() - 1;
+        }
+
+        void set(int index, Object value) {
+            if (value instanceof String str) value = new LoxString(str);
+            if (value instanceof LoxLazy lazy) value = lazy.get();
+            if (value instanceof Map<?, ?> || value instanceof LoxArray) value = new LoxString(LoxJsonStringifier.stringify(value));
+
+            Column column = byIndex.get(index);
+
+            if (column == null) {
+                if (value == null) return; // typed by the first real value, padded until then
+
+                column = switch (value) {
+                    case Double ignored -> new NumberColumn();
+                    case Boolean ignored -> new BooleanColumn();
+                    default -> new StringColumn();
+                };
+
+                for (int i = 0; i < rows; i++) column.append(null);
+                byIndex.set(index, column);
+            } else if (!column.accepts(value)) {
+                StringColumn strings = new StringColumn();
+                for (int i = 0; i < column.size; i++) strings.append(column.get(i));
+
+                column = strings;
+                byIndex.set(index, column);
+            }
+
+            if (column.size == rows) column.append(value);
+        }
+
+        void endRow() {
+            rows++;
+
+            for (Column column : byIndex) {
+                if (column != null && column.size < rows) column.append(null);
+            }
+        }
+
+        LoxTable build(Interpreter interpreter) {
+            for (int i = 0; i < names.size(); i++) {
+                Column column = byIndex.get(i);
+
+                if (column == null) {
+                    column = new StringColumn();
+                    for (int r = 0; r < rows; r++) column.append(null);
+                }
+
+                columns.put(names.get(i), column);
+            }
+
+            return new LoxTable(interpreter, columns, null, rows);
+        }
+    }
+
+    public static LoxTable fromRows(Interpreter interpreter, LoxArray array) {
+        Builder builder = new Builder();
+
+        for (Object element : array.elements) {
+            if (element instanceof LoxLazy lazy) element = lazy.get();
+
+            if (!(element instanceof Map<?, ?> row)) {
+                throw new RuntimeError(null, "RuntimeError", "Tables are built from an array of dictionaries.", null);
+            }
+
+            for (Map.Entry<?, ?> entry : row.entrySet()) {
+                builder.set(builder.columnIndex(entry.getKey().toString()), entry.getValue());
+            }
+
+            builder.endRow();
+        }
+
+        return builder.build(interpreter);
+    }
+
+    /**
+     * One flat JSON object per line; nested objects and arrays are kept as their JSON text.
+     */
+    public static LoxTable readJsonLines(Interpreter interpreter, Path path) throws IOException {
+        Builder builder = new Builder();
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank()) continue;
+
+                Object parsed;
+
+                try {
+                    parsed = new LoxJsonParser(interpreter, line).parse();
+                } catch (RuntimeError error) {
+                    String message = error.message.endsWith(".") ? error.message.substring(0, error.message.length() - 1) : error.message;
+                    throw new RuntimeError(null, "RuntimeError", message + " on line " + number + ".", null);
+                }
+
+                if (!(parsed instanceof Map<?, ?> row)) {
+                    throw new RuntimeError(null, "RuntimeError", "Every JSON line must hold an object, line " + number + " doesn't.", null);
+                }
+
+                for (Map.Entry<?, ?> entry : row.entrySet()) {
+                    builder.set(builder.columnIndex(entry.getKey().toString()), entry.getValue());
+                }
+
+                builder.endRow();
+            }
+        }
+
+        return builder.build(interpreter);
+    }
+
+    /**
+     * CSV with a header line. Fields may be quoted ("" escapes a quote); numbers and true/false
+     * are recognised, empty fields are null.
+     */
+    public static LoxTable readCsv(Interpreter interpreter, Path path) throws IOException {
+        Builder builder = new Builder();
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            List<String> header = readCsvRecord(reader);
+            if (header == null) return builder.build(interpreter);
+
+            int[] indices = new int[header.size()];
+            for (int i = 0; i < indices.length; i++) indices[i] = builder.columnIndex(header.get(i));
+
+            List<String> record;
+
+            while ((record = readCsvRecord(reader)) != null) {
+                if (record.size() == 1 && record.getFirst().isEmpty()) continue;
+
+                for (int i = 0; i < indices.length && i < record.size(); i++) {
+                    builder.set(indices[i], csvValue(record.get(i)));
+                }
+
+                builder.endRow();
+            }
+        }
+
+        return builder.build(interpreter);
+    }
+
+    private static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) return null;
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; ; i++) {
+            if (i == line.length()) {
+                if (!quoted) break;
+
+                // a quoted field carries on over the line break
+                String next = reader.readLine();
+                if (next == null) break;
+
+                field.append('\n');
+                line = next;
+                i = -1;
+                continue;
+            }
+
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static Object csvValue(String field) {
+        if (field.isEmpty()) return null;
+        if (field.equals("true")) return true;
+        if (field.equals("false")) return false;
+
+        char c = field.charAt(0);
+
+        if (Character.isDigit(c) || c == '-' || c == '.') {
+            try {
+                return Double.parseDouble(field);
+            } catch (NumberFormatException ignored) {
+                // not a number after all
+            }
+        }
+
+        return new LoxString(field);
+    }
+
+    // sign flips the order of values; nulls go last either way
+    private static int compare(Column column, int a, int b, int sign) {
+        boolean nullA = column.isNull(a);
+        boolean nullB = column.isNull(b);
+        if (nullA || nullB) return nullA == nullB ? 0 : nullA ? 1 : -1;
+
+        return sign * column.compare(a, b);
+    }
+
+    private LoxTable sortBy(Column column, boolean ascending) {
+        int[] order = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) order[i] = physical(i);
+
+        int[] scratch = new int[rowCount];
+        mergeSort(order, scratch, 0, rowCount, column, ascending ? 1 : -1);
+        return withRows(order);
+    }
+
+    // stable, and sorts the primitive row numbers without boxing them
+    private void mergeSort(int[] a, int[] scratch, int from, int to, Column column, int sign) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = a[i];
+                int j = i - 1;
+
+                while (j >= from && compare(column, a[j], row, sign) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+
+                a[j + 1] = row;
+            }
+
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(a, scratch, from, mid, column, sign);
+        mergeSort(a, scratch, mid, to, column, sign);
+
+        if (compare(column, a[mid - 1], a[mid], sign) <= 0) return;
+
+        System.arraycopy(a, from, scratch, from, to - from);
+        int i = from, j = mid, k = from;
+
+        while (i < mid && j < to) {
+            a[k++] = compare(column, scratch[j], scratch[i], sign) < 0 ? scratch[j++] : scratch[i++];
+        }
+
+        while (i < mid) a[k++] = scratch[i++];
+        while (j < to) a[k++] = scratch[j++];
+    }
+
+    private LoxTable where(Column column, String op, Object value) {
+        int[] selection = new int[rowCount];
+        int count = 0;
+
+        if (column instanceof NumberColumn numbers && value instanceof Double target) {
+            double t = target;
+
+            for (int i = 0; i < rowCount; i++) {
+                int row = physical(i);
+
+                // null is != any number, like it is for the other columns, and never ordered
+                if (numbers.isNull(row)) {
+                    if (op.equals("!=")) selection[count++] = row;
+                    continue;
+                }
+
+                double v = numbers.number(row);
+                boolean keep = switch (op) {
+                    case "==" -> v == t;
+                    case "!=" -> v != t;
+                    case "<" -> v < t;
+                    case "<=" -> v <= t;
+                    case ">" -> v > t;
+                    case ">=" -> v >= t;
+                    default -> throw new RuntimeError(null, "RuntimeError", "Unknown comparison '" + op + "'.", "Use one of ==, !=, <, <=, > or >=.");
+                };
+
+                if (keep) selection[count++] = row;
+            }
+        } else if (column instanceof StringColumn strings && (op.equals("==") || op.equals("!="))) {
+            // compare dictionary codes, the strings themselves are never touched
+            int target = value == null ? -1 : strings.codeOf(value);
+            boolean equal = op.equals("==");
+
+            for (int i = 0; i < rowCount; i++) {
+                int row = physical(i);
+                if ((strings.code(row) == target) == equal) selection[count++] = row;
+            }
+        } else {
+            for (int i = 0; i < rowCount; i++) {
+                int row = physical(i);
+                Object v = column.get(row);
+
+                boolean keep = switch (op) {
+                    case "==" -> Objects.equals(v, value);
+                    case "!=" -> !Objects.equals(v, value);
+                    default -> throw new RuntimeError(null, "RuntimeError", "Only == and != can compare this column.", null);
+                };
+
+                if (keep) selection[count++] = row;
+            }
+        }
+
+        return withRows(Arrays.copyOf(selection, count));
+    }
+
+    private static final List<String> AGGREGATES = List.of("count", "sum", "mean", "min", "max");
+
+    private LoxTable groupBy(Object keyName, Map<?, ?> spec) {
+        Column key = column(keyName);
+        List<String> outputs = new ArrayList<>();
+        List<String> ops = new ArrayList<>();
+        List<NumberColumn> sources = new ArrayList<>();
+
+        for (Map.Entry<?, ?> entry : spec.entrySet()) {
+            List<Object> parts = entry.getValue() instanceof LoxArray array ? array.elements : List.of(entry.getValue());
+            String op = parts.isEmpty() ? "" : parts.getFirst().toString();
+
+            if (!AGGREGATES.contains(op)) {
+                throw new RuntimeError(null, "RuntimeError", "Unknown aggregate '" + op + "'.", "Use one of " + String.join(", ", AGGREGATES) + ".");
+            }
+
+            NumberColumn source = null;
+
+            if (!op.equals("count")) {
+                if (parts.size() < 2 || !(column(parts.get(1)) instanceof NumberColumn numbers)) {
+                    throw new RuntimeError(null, "RuntimeError", "Aggregate '" + op + "' needs a number column.", null);
+                }
+
+                source = numbers;
+            }
+
+            outputs.add(entry.getKey().toString());
+            ops.add(op);
+            sources.add(source);
+        }
+
+        Map<Object, Integer> groups = new HashMap<>();
+        List<Integer> firstRows = new ArrayList<>();
+        int aggregates = ops.size();
+        double[][] acc = new double[aggregates][16];
+        int[][] counts = new int[aggregates][16];
+
+        for (int i = 0; i < rowCount; i++) {
+            int row = physical(i);
+            Object groupKey = key instanceof StringColumn strings ? (Object) strings.code(row) : key.get(row);
+
+            Integer group = groups.get(groupKey);
+
+            if (group == null) {
+                group = firstRows.size();
+                groups.put(groupKey, group);
+                firstRows.add(row);
+
+                if (aggregates > 0 && group == acc[0].length) {
+                    for (int a = 0; a < aggregates; a++) {
+                        acc[a] = Arrays.copyOf(acc[a], group * 2);
+                        counts[a] = Arrays.copyOf(counts[a], group * 2);
+                    }
+                }
+            }
+
+            for (int a = 0; a < aggregates; a++) {
+                NumberColumn source = sources.get(a);
+
+                if (source == null) {
+                    counts[a][group]++;
+                    continue;
+                }
+
+                if (source.isNull(row)) continue;
+                double v = source.number(row);
+                int n = counts[a][group]++;
+
+                acc[a][group] = switch (ops.get(a)) {
+                    case "min" -> n == 0 ? v : Math.min(acc[a][group], v);
+                    case "max" -> n == 0 ? v : Math.max(acc[a][group], v);
+                    default -> acc[a][group] + v; // sum, mean
+                };
+            }
+        }
+
+        Builder builder = new Builder();
+        int keyIndex = builder.columnIndex(keyName.toString());
+        int[] outputIndices = new int[aggregates];
+        for (int a = 0; a < aggregates; a++) outputIndices[a] = builder.columnIndex(outputs.get(a));
+
+        for (int group = 0; group < firstRows.size(); group++) {
+            builder.set(keyIndex, key.get(firstRows.get(group)));
+
+            for (int a = 0; a < aggregates; a++) {
+                int n = counts[a][group];
+
+                Object value = switch (ops.get(a)) {
+                    case "count" -> (double) n;
+                    case "sum" -> acc[a][group];
+                    case "mean" -> n == 0 ? null : acc[a][group] / n;
+                    default -> n == 0 ? null : acc[a][group];
+                };
+
+                builder.set(outputIndices[a], value);
+            }
+
+            builder.endRow();
+        }
+
+        return builder.build(interpreter);
+    }
+
+    private boolean hasNulls(Column column) {
+        for (int i = 0; i < rowCount; i++) {
+            if (column.isNull(physical(i))) return true;
+        }
+
+        return false;
+    }
+
+    private double[] numbers(Column column) {
+        if (!(column instanceof NumberColumn numbers)) {
+            throw new RuntimeError(null, "RuntimeError", "This operation needs a number column.", null);
+        }
+
+        double[] values = new double[rowCount];
+        int count = 0;
+
+        for (int i = 0; i < rowCount; i++) {
+            int row = physical(i);
+            if (!numbers.isNull(row)) values[count++] = numbers.number(row);
+        }
+
+        return Arrays.copyOf(values, count);
+    }
+
+    public LoxDict toDict(int row) {
+        LoxDict dict = new LoxDict(columns.size());
+
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            dict.put(new LoxString(entry.getKey()), entry.getValue().get(row));
+        }
+
+        return dict;
+    }
+
+    /**
+     * What Lox callbacks see of a row: its columns as properties (row.price) or by name
+     * (row["price"]), read straight from the table on access.
+     */
+    public static final class Row implements LoxNativeObject, LoxIndexable {
+        private final LoxTable table;
+        private final int row;
+
+        private Row(LoxTable table, int row) {
+            this.table = table;
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Token name) {
+            Column column = table.columns.get(name.lexeme);
+            if (column == null) throw new RuntimeError(name, "RuntimeError", "Row has no column '" + name.lexeme + "'.", null);
+
+            return column.get(row);
+        }
+
+        @Override
+        public Object get(Token token, Object index) {
+            String key = index instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(index);
+            Column column = table.columns.get(key);
+            if (column == null) throw new RuntimeError(token, "RuntimeError", "Row has no column '" + key + "'.", null);
+
+            return column.get(row);
+        }
+
+        @Override
+        public void set(Token token, Object index, Object item) {
+            throw new RuntimeError(token, "RuntimeError", "Table rows are read-only.", null);
+        }
+
+        @Override
+        public int length() {
+            return table.columns.size();
+        }
+
+        @Override
+        public String toString() {
+            return Interpreter.stringify(table.toDict(row));
+        }
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxTable table) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("len", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return (double) table.rowCount;
+            }
+        });
+
+        methods.put("columns", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                List<Object> names = new ArrayList<>();
+                for (String name : table.columns.keySet()) names.add(new LoxString(name));
+                return new LoxArray(table.interpreter, names);
+            }
+        });
+
+        methods.put("select", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1; // 1: array of column names
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Map<String, Column> projected = new LinkedHashMap<>();
+
+                for (Object name : ((LoxArray) arguments.getFirst()).elements) {
+                    projected.put(name.toString(), table.column(name));
+                }
+
+                return new LoxTable(table.interpreter, projected, table.rows, table.rowCount);
+            }
+        });
+
+        methods.put("filter", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1; // 1: fn(row) -> bool
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                LoxCallable predicate = LoxCallable.expect(arguments.getFirst(), "predicate");
+                int[] selection = new int[table.rowCount];
+                int count = 0;
+
+                for (int i = 0; i < table.rowCount; i++) {
+                    int row = table.physical(i);
+                    Object keep = predicate.call(interpreter, List.of(new Row(table, row)), false);
+                    if (keep != null && !Boolean.FALSE.equals(keep)) selection[count++] = row;
+                }
+
+                return table.withRows(Arrays.copyOf(selection, count));
+            }
+        });
+
+        methods.put("where", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 3; // 1: column, 2: comparison, 3: value
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Object value = arguments.get(2);
+                if (value instanceof String str) value = new LoxString(str);
+
+                return table.where(table.column(arguments.getFirst()), arguments.get(1).toString(), value);
+            }
+        });
+
+        methods.put("sort_by", new LoxCallable() {
+            @Override
+            public int arity() {
+                return -1; // 1: column, 2: ascending (default true)
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                boolean ascending = arguments.size() < 2 || Boolean.TRUE.equals(arguments.get(1));
+                return table.sortBy(table.column(arguments.getFirst()), ascending);
+            }
+        });
+
+        methods.put("group_by", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 2; // 1: key column, 2: { output: [op, column] }
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return table.groupBy(arguments.getFirst(), (Map<?, ?>) arguments.get(1));
+            }
+        });
+
+        methods.put("column", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                Column column = table.column(arguments.getFirst());
+
+                // a Float64Array can't hold null, so a number column with gaps comes back as an array
+                if (column instanceof NumberColumn numbers && !table.hasNulls(numbers)) {
+                    double[] values = new double[table.rowCount];
+                    for (int i = 0; i < values.length; i++) values[i] = numbers.number(table.physical(i));
+                    return new LoxFloat64Array(table.interpreter, values);
+                }
+
+                List<Object> values = new ArrayList<>(table.rowCount);
+                for (int i = 0; i < table.rowCount; i++) values.add(column.get(table.physical(i)));
+                return new LoxArray(table.interpreter, values);
+            }
+        });
+
+        methods.put("sum", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return new LoxFloat64Array(table.interpreter, table.numbers(table.column(arguments.getFirst()))).sum();
+            }
+        });
+
+        methods.put("mean", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                double[] values = table.numbers(table.column(arguments.getFirst()));
+                return values.length == 0 ? null : new LoxFloat64Array(table.interpreter, values).sum() / values.length;
+            }
+        });
+
+        methods.put("min", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                double[] values = table.numbers(table.column(arguments.getFirst()));
+                return values.length == 0 ? null : Arrays.stream(values).min().getAsDouble();
+            }
+        });
+
+        methods.put("max", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                double[] values = table.numbers(table.column(arguments.getFirst()));
+                return values.length == 0 ? null : Arrays.stream(values).max().getAsDouble();
+            }
+        });
+
+        methods.put("head", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                int n = Math.max(0, Math.min(table.rowCount, (int) (double) arguments.getFirst()));
+                int[] selection = new int[n];
+                for (int i = 0; i < n; i++) selection[i] = table.physical(i);
+                return table.withRows(selection);
+            }
+        });
+
+        methods.put("row", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                int i = (int) (double) arguments.getFirst();
+
+                if (i < 0 || i >= table.rowCount) {
+                    throw new RuntimeError(null, "RuntimeError", "Table row is out of bounds.", null);
+                }
+
+                return new Row(table, table.physical(i));
+            }
+        });
+
+        methods.put("each", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                LoxCallable callback = LoxCallable.expect(arguments.getFirst(), "callback");
+
+                for (int i = 0; i < table.rowCount; i++) {
+                    callback.call(interpreter, List.of(new Row(table, table.physical(i))), false);
+                }
+
+                return null;
+            }
+        });
+
+        methods.put("to_array", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                List<Object> rows = new ArrayList<>(table.rowCount);
+                for (int i = 0; i < table.rowCount; i++) rows.add(table.toDict(table.physical(i)));
+                return new LoxArray(table.interpreter, rows);
+            }
+        });
+
+        return methods;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (methods == null) {
+            methods = createMethods(this);
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < rowCount;
+            }
+
+            @Override
+            public Object next() {
+                if (i >= rowCount) throw new NoSuchElementException();
+                return new Row(LoxTable.this, physical(i++));
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "<table " + rowCount + " rows: " + String.join(", ", columns.keySet()) + ">";
+    }
+}
@@ -74,7 +74,19 @@ public class LoxTcpCore {
         });
     }
 
+    /**
+     * Reads one request (or whatever the peer sent) as UTF-8 text.
+     */
     public static CompletableFuture<LoxString> ___tcp_read___(Object socket, Object bufferSize) {
+        return ___tcp_read_bytes___(socket, bufferSize)
+                .thenApply(bytes -> bytes == null ? null : new LoxString(new String(bytes, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Reads one request as raw bytes: binary bodies and WebSocket frames come through untouched.
+     * The headers are only scanned as ISO-8859-1 to find Content-Length, which keeps offsets in bytes.
+     */
+    public static CompletableFuture<byte[]> ___tcp_read_bytes___(Object socket, Object bufferSize) {
         int bSize = (int)(double) bufferSize;
 
         if (socket instanceof javax.net.ssl.SSLSocket sslClient) {
@@ -110,7 +122,7 @@ public class LoxTcpCore {
                         }
                     }
 
-                    return new LoxString(baos.toString(StandardCharsets.ISO_8859_1));
+                    return baos.toByteArray();
                 } catch (Exception e) {
                     return null;
                 }
@@ -166,7 +178,7 @@ public class LoxTcpCore {
                     }
                 }
 
-                return new LoxString(baos.toString(StandardCharsets.ISO_8859_1));
+                return baos.toByteArray();
             } catch (Exception e) {
                 System.out.println("JAVA: connection interrupted by browser:" +
                         (e.getCause() != null ? e.getCause().getClass().getSimpleName() : e.getMessage()));
@@ -178,8 +190,8 @@ public class LoxTcpCore {
     public static CompletableFuture<Boolean> ___tcp_write___(Object sckt, Object dataObj) {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
 
-        String data = dataObj instanceof LoxString loxStr ? loxStr.value : dataObj.toString();
-        byte[] bytes = data.getBytes(StandardCharsets.ISO_8859_1);
+        // Bytes go out as they are, text as UTF-8
+        byte[] bytes = LoxBytes.toBytes(dataObj, StandardCharsets.UTF_8);
 
         if (sckt instanceof SSLSocket sslSocket) {
             return CompletableFuture.supplyAsync(() -> {
@@ -217,6 +229,21 @@ public class LoxTcpCore {
         return future;
     }
 
+    public static CompletableFuture<Boolean> ___tcp_write_json___(Object sckt, Object value) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                java.io.OutputStream out = sckt instanceof SSLSocket sslSocket
+                        ? sslSocket.getOutputStream()
+                        : java.nio.channels.Channels.newOutputStream((AsynchronousSocketChannel) sckt);
+
+                new LoxJsonWriter(out).write(value).flush();
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        });
+    }
+
     public static CompletableFuture<Boolean> ___tcp_close___(Object sckt) {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
 
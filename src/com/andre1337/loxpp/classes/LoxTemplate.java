@@ -0,0 +1,424 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+import com.andre1337.loxpp.lexer.TokenType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A template compiled once into a tree of nodes and rendered in a single pass into a UTF-8 byte
+ * buffer. The syntax:
+ * <pre>
+ *   {{ user.name }}                   the value, HTML-escaped
+ *   {{{ body }}}                      the value as is
+ *   {% if cond %} .. {% else %} .. {% end %}      also {% if not cond %}
+ *   {% for item in items %} .. {% end %}          also {% for item, i in items %}
+ *   {% include "partials/header.html" %}
+ * </pre>
+ * Names are looked up in the loop variables first, then in the data; a dotted path walks into
+ * dictionaries, instances, arrays and native objects. Missing values and null render as nothing.
+ */
+public class LoxTemplate {
+    private static final int MAX_CACHED = 512;
+    private static final int MAX_INCLUDE_DEPTH = 32;
+
+    // compiled templates by their source text, and by file with the mtime they were read at
+    private static final Map<String, LoxTemplate> compiled = new ConcurrentHashMap<>();
+    private static final Map<Path, CachedFile> files = new ConcurrentHashMap<>();
+
+    private record CachedFile(FileTime modified, LoxTemplate template) {}
+
+    private final List<Node> nodes;
+    private final Path directory; // includes resolve against it
+
+    private LoxTemplate(List<Node> nodes, Path directory) {
+        this.nodes = nodes;
+        this.directory = directory;
+    }
+
+    public static LoxTemplate of(String source) {
+        LoxTemplate template = compiled.get(source);
+        if (template != null) return template;
+
+        template = new Parser(source, Path.of("")).parse();
+        if (compiled.size() >= MAX_CACHED) compiled.clear();
+        compiled.put(source, template);
+
+        return template;
+    }
+
+    public static LoxTemplate ofFile(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        FileTime modified = Files.getLastModifiedTime(absolute);
+        CachedFile cached = files.get(absolute);
+
+        if (cached != null && cached.modified.equals(modified)) {
+            return cached.template;
+        }
+
+        String source = Files.readString(absolute, StandardCharsets.UTF_8);
+        Path directory = absolute.getParent() == null ? Path.of("") : absolute.getParent();
+        LoxTemplate template = new Parser(source, directory).parse();
+        files.put(absolute, new CachedFile(modified, template));
+
+        return template;
+    }
+
+    public byte[] render(Object data) {
+        Output out = new Output();
+        Scope scope = new Scope(null, null, data);
+
+        renderNodes(nodes, scope, out, 0);
+        return out.toByteArray();
+    }
+
+    private void renderNodes(List<Node> nodes, Scope scope, Output out, int depth) {
+        for (Node node : nodes) {
+            switch (node) {
+                case Text text -> out.write(text.bytes);
+
+                case Value value -> {
+                    Object resolved = scope.resolve(value.path);
+                    if (resolved == null) break;
+
+                    String str = resolved instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(resolved);
+                    if (value.escape) out.writeEscaped(str);
+                    else out.writeUtf8(str);
+                }
+
+                case If branch -> {
+                    Object cond = scope.resolve(branch.path);
+                    boolean truthy = cond != null && !Boolean.FALSE.equals(cond);
+
+                    renderNodes(truthy != branch.negate ? branch.then : branch.otherwise, scope, out, depth);
+                }
+
+                case For loop -> {
+                    Object iterable = scope.resolve(loop.path);
+                    Iterable<?> elements = switch (iterable) {
+                        case LoxArray array -> array.elements;
+                        case Map<?, ?> map -> map.values();
+                        case Iterable<?> it -> it;
+                        case null, default -> List.of();
+                    };
+
+                    double index = 0;
+
+                    for (Object element : elements) {
+                        Scope inner = new Scope(scope, loop.name, element);
+                        if (loop.indexName != null) inner = new Scope(inner, loop.indexName, index);
+
+                        renderNodes(loop.body, inner, out, depth);
+                        index++;
+                    }
+                }
+
+                case Include include -> {
+                    if (depth >= MAX_INCLUDE_DEPTH) {
+                        throw new RuntimeError(null, "RuntimeError", "Template includes nest too deeply (is '" + include.name + "' including itself?).", null);
+                    }
+
+                    LoxTemplate partial;
+
+                    try {
+                        partial = ofFile(directory.resolve(include.name));
+                    } catch (IOException e) {
+                        throw new RuntimeError(null, "RuntimeError", "Could not read template '" + include.name + "'.", null);
+                    }
+
+                    partial.renderNodes(partial.nodes, scope, out, depth + 1);
+                }
+            }
+        }
+    }
+
+    private sealed interface Node permits Text, Value, If, For, Include {}
+
+    private record Text(byte[] bytes) implements Node {}
+
+    private record Value(LoxString[] path, boolean escape) implements Node {}
+
+    private record If(LoxString[] path, boolean negate, List<Node> then, List<Node> otherwise) implements Node {}
+
+    private record For(String name, String indexName, LoxString[] path, List<Node> body) implements Node {}
+
+    private record Include(String name) implements Node {}
+
+    private record Scope(Scope parent, String name, Object value) {
+        Object resolve(LoxString[] path) {
+            Object current = null;
+            boolean found = false;
+
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                if (scope.name == null) {
+                    current = lookup(scope.value, path[0]);
+                    found = true;
+                    break;
+                }
+
+                if (scope.name.equals(path[0].value)) {
+                    current = scope.value;
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) return null;
+
+            for (int i = 1; i < path.length && current != null; i++) {
+                current = lookup(current, path[i]);
+            }
+
+            return current instanceof LoxLazy lazy ? lazy.get() : current;
+        }
+    }
+
+    // the path segments are LoxStrings already, so dictionary lookups don't allocate a key
+    private static Object lookup(Object target, LoxString name) {
+        if (target instanceof LoxLazy lazy) target = lazy.get();
+
+        return switch (target) {
+            case Map<?, ?> map -> map.get(name);
+
+            case LoxInstance instance when !(instance instanceof LoxClass) -> {
+                Integer slot = instance.klass.fieldLayout.get(name.value);
+                yield slot == null ? null : instance.fields[slot];
+            }
+
+            case LoxArray array -> {
+                try {
+                    int index = Integer.parseInt(name.value);
+                    yield index >= 0 && index < array.elements.size() ? array.elements.get(index) : null;
+                } catch (NumberFormatException e) {
+                    yield name.value.equals("len") ? (double) array.elements.size() : null;
+                }
+            }
+
+            case LoxNativeObject object -> {
+                try {
+                    yield object.get(new Token(TokenType.IDENTIFIER, name.value, 0, 0));
+                } catch (RuntimeError e) {
+                    yield null;
+                }
+            }
+
+            case null, default -> null;
+        };
+    }
+
+    private static final class Parser {
+        private final String source;
+        private final Path directory;
+        private int pos = 0;
+
+        Parser(String source, Path directory) {
+            this.source = source;
+            this.directory = directory;
+        }
+
+        LoxTemplate parse() {
+            List<Node> nodes = new ArrayList<>();
+            String end = parseNodes(nodes);
+            if (end != null) throw error("'{% " + end + " %}' without a matching block");
+
+            return new LoxTemplate(nodes, directory);
+        }
+
+        /**
+         * Parses until the end of the source or a block tag (else, end) that closes the caller's
+         * block, which is returned.
+         */
+        private String parseNodes(List<Node> nodes) {
+            StringBuilder text = new StringBuilder();
+
+            while (pos < source.length()) {
+                int open = source.indexOf('{', pos);
+
+                if (open < 0 || open + 1 >= source.length()) {
+                    text.append(source, pos, source.length());
+                    pos = source.length();
+                    break;
+                }
+
+                char next = source.charAt(open + 1);
+
+                if (next != '{' && next != '%') {
+                    text.append(source, pos, open + 1);
+                    pos = open + 1;
+                    continue;
+                }
+
+                text.append(source, pos, open);
+                flush(text, nodes);
+
+                if (next == '{') {
+                    boolean raw = source.startsWith("{{{", open);
+                    String close = raw ? "}}}" : "}}";
+                    int stop = source.indexOf(close, open);
+                    if (stop < 0) throw error("unterminated '" + (raw ? "{{{" : "{{") + "'");
+
+                    nodes.add(new Value(path(source.substring(open + close.length(), stop)), !raw));
+                    pos = stop + close.length();
+                    continue;
+                }
+
+                int stop = source.indexOf("%}", open);
+                if (stop < 0) throw error("unterminated '{%'");
+
+                String[] words = source.substring(open + 2, stop).trim().split("\\s+");
+                pos = stop + 2;
+
+                switch (words[0]) {
+                    case "if" -> {
+                        boolean negate = words.length == 3 && words[1].equals("not");
+                        if (words.length != (negate ? 3 : 2)) throw error("expected '{% if name %}'");
+
+                        List<Node> then = new ArrayList<>();
+                        List<Node> otherwise = new ArrayList<>();
+                        String closed = parseNodes(then);
+
+                        if ("else".equals(closed)) closed = parseNodes(otherwise);
+                        if (!isEnd(closed)) throw error("'{% if %}' is missing its '{% end %}'");
+
+                        nodes.add(new If(path(words[negate ? 2 : 1]), negate, then, otherwise));
+                    }
+
+                    case "for" -> {
+                        // for item in items | for item, i in items
+                        String spec = String.join(" ", Arrays.copyOfRange(words, 1, words.length));
+                        int in = spec.indexOf(" in ");
+                        if (in < 0) throw error("expected '{% for name in items %}'");
+
+                        String[] names = spec.substring(0, in).split(",");
+                        List<Node> body = new ArrayList<>();
+                        if (!isEnd(parseNodes(body))) throw error("'{% for %}' is missing its '{% end %}'");
+
+                        nodes.add(new For(
+                                names[0].trim(),
+                                names.length > 1 ? names[1].trim() : null,
+                                path(spec.substring(in + 4)),
+                                body
+                        ));
+                    }
+
+                    case "include" -> {
+                        String name = words.length == 2 ? words[1] : "";
+                        if (name.length() < 2 || name.charAt(0) != '"' || name.charAt(name.length() - 1) != '"') {
+                            throw error("expected '{% include \"file\" %}'");
+                        }
+
+                        nodes.add(new Include(name.substring(1, name.length() - 1)));
+                    }
+
+                    case "else", "end", "endif", "endfor" -> {
+                        return words[0];
+                    }
+
+                    default -> throw error("unknown tag '{% " + words[0] + " %}'");
+                }
+            }
+
+            flush(text, nodes);
+            return null;
+        }
+
+        private static boolean isEnd(String tag) {
+            return "end".equals(tag) || "endif".equals(tag) || "endfor".equals(tag);
+        }
+
+        private static void flush(StringBuilder text, List<Node> nodes) {
+            if (text.isEmpty()) return;
+
+            nodes.add(new Text(text.toString().getBytes(StandardCharsets.UTF_8)));
+            text.setLength(0);
+        }
+
+        private LoxString[] path(String expression) {
+            String trimmed = expression.trim();
+            if (trimmed.isEmpty()) throw error("empty '{{ }}'");
+
+            String[] parts = trimmed.split("\\.");
+            LoxString[] path = new LoxString[parts.length];
+            for (int i = 0; i < parts.length; i++) path[i] = new LoxString(parts[i]);
+
+            return path;
+        }
+
+        private RuntimeError error(String message) {
+            int line = 1;
+            for (int i = 0; i < pos && i < source.length(); i++) {
+                if (source.charAt(i) == '\n') line++;
+            }
+
+            return new RuntimeError(null, "RuntimeError", "Template error on line " + line + ": " + message + ".", null);
+        }
+    }
+
+    private static final class Output {
+        private byte[] buffer = new byte[4096];
+        private int count = 0;
+
+        private void ensure(int extra) {
+            if (count + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+            }
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, count, bytes.length);
+            count += bytes.length;
+        }
+
+        void writeUtf8(String str) {
+            int length = str.length();
+            ensure(length);
+
+            // ASCII goes straight in, anything else through the encoder
+            for (int i = 0; i < length; i++) {
+                char c = str.charAt(i);
+
+                if (c >= 0x80) {
+                    write(str.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+
+                buffer[count++] = (byte) c;
+            }
+        }
+
+        void writeEscaped(String str) {
+            int start = 0;
+
+            for (int i = 0; i < str.length(); i++) {
+                String entity = switch (str.charAt(i)) {
+                    case '&' -> "&amp;";
+                    case '<' -> "&lt;";
+                    case '>' -> "&gt;";
+                    case '"' -> "&quot;";
+                    case '\'' -> "&#39;";
+                    default -> null;
+                };
+
+                if (entity == null) continue;
+
+                writeUtf8(str.substring(start, i));
+                writeUtf8(entity);
+                start = i + 1;
+            }
+
+            writeUtf8(start == 0 ? str : str.substring(start));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, count);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package com.andre1337.loxpp.classes;
+
+import com.andre1337.loxpp.interpreter.Interpreter;
+import com.andre1337.loxpp.lexer.Token;
+
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class LoxWebSocket implements LoxNativeObject {
+    public static final int OP_CONTINUATION = 0x0;
+    public static final int OP_TEXT = 0x1;
+    public static final int OP_BINARY = 0x2;
+    public static final int OP_CLOSE = 0x8;
+    public static final int OP_PING = 0x9;
+    public static final int OP_PONG = 0xA;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+    private static final byte[] DEFLATE_TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+    private static final Object NEED_INPUT = new Object();
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // read buffers are recycled across connections, a chat server churns through a lot of them
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    private final Object socket;
+    private final boolean deflate;
+    private final Map<String, LoxCallable> methods;
+
+    // reading blocks on the socket, so it has its own lock: sends, pings and closes from other
+    // tasks never wait for the peer to say something
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // guarded by readLock
+    private ByteBuffer buffer;
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+    private int messageOpcode = -1;
+    private boolean messageCompressed = false;
+    private Inflater inflater;
+
+    // guarded by writeLock
+    private Deflater deflater;
+
+    private volatile boolean closed = false;
+
+    public LoxWebSocket(Object socket, boolean deflate) {
+        this.socket = socket;
+        this.deflate = deflate;
+        this.buffer = acquireBuffer();
+        this.methods = createMethods(this);
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer pooled = bufferPool.poll();
+        return pooled != null ? pooled.clear().flip() : ByteBuffer.allocate(BUFFER_SIZE).flip();
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        if (buffer.capacity() == BUFFER_SIZE) {
+            bufferPool.offer(buffer);
+        }
+    }
+
+    /**
+     * Answers a client's Sec-WebSocket-Extensions offer. Only permessage-deflate without context
+     * takeover is supported, which keeps every message independently (de)compressible.
+     */
+    public static String negotiateExtensions(String offer) {
+        if (offer == null) return null;
+
+        for (String extension : offer.split(",")) {
+            if (extension.trim().startsWith("permessage-deflate")) {
+                return "permessage-deflate; server_no_context_takeover; client_no_context_takeover";
+            }
+        }
+
+        return null;
+    }
+
+    private static Map<String, LoxCallable> createMethods(LoxWebSocket ws) {
+        Map<String, LoxCallable> methods = new HashMap<>();
+
+        methods.put("next", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return CompletableFuture.supplyAsync(ws::receive);
+            }
+        });
+
+        methods.put("send", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                byte[] payload = stringOf(arguments.getFirst()).getBytes(StandardCharsets.UTF_8);
+                return CompletableFuture.supplyAsync(() -> ws.sendMessage(OP_TEXT, payload));
+            }
+        });
+
+        methods.put("send_binary", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                byte[] payload = LoxBytes.toBytes(arguments.getFirst(), StandardCharsets.ISO_8859_1);
+                return CompletableFuture.supplyAsync(() -> ws.sendMessage(OP_BINARY, payload));
+            }
+        });
+
+        methods.put("ping", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return CompletableFuture.supplyAsync(() -> ws.sendFrame(OP_PING, new byte[0], 0, 0, false));
+            }
+        });
+
+        methods.put("close", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+                return CompletableFuture.supplyAsync(() -> {
+                    ws.close(1000);
+                    return true;
+                });
+            }
+        });
+
+        return methods;
+    }
+
+    private static String stringOf(Object value) {
+        return value instanceof LoxString loxStr ? loxStr.value : Interpreter.stringify(value);
+    }
+
+    /**
+     * Blocks until a complete data message is available, answering pings and reassembling
+     * fragments on the way. Returns null once the connection is closed, by either side.
+     */
+    public Object receive() {
+        readLock.lock();
+
+        try {
+            while (!closed) {
+                Object result = parseFrame();
+
+                if (result == NEED_INPUT) {
+                    if (!fill()) {
+                        close(1006);
+                        break;
+                    }
+                } else if (result != null) {
+                    return result;
+                }
+            }
+
+            releaseReadState();
+            return null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // once closed: the buffer goes back to the pool and the inflater is freed, by whoever holds readLock
+    private void releaseReadState() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+
+        if (buffer.capacity() > 0) {
+            releaseBuffer(buffer);
+            buffer = ByteBuffer.allocate(0);
+        }
+    }
+
+    private boolean fill() {
+        if (buffer.remaining() == buffer.capacity()) {
+            // a single frame header + payload larger than the buffer: grow, this buffer leaves the pool
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            larger.put(buffer).flip();
+            buffer = larger;
+        }
+
+        buffer.compact();
+
+        try {
+            int read;
+
+            if (socket instanceof SSLSocket sslSocket) {
+                InputStream is = sslSocket.getInputStream();
+                read = is.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read > 0) buffer.position(buffer.position() + read);
+            } else {
+                Integer count = ((AsynchronousSocketChannel) socket).read(buffer).get();
+                read = count == null ? -1 : count;
+            }
+
+            return read >= 0;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Consumes at most one frame from the buffer. Returns a finished message, NEED_INPUT when the
+     * buffer holds only part of a frame, or null when a control frame or fragment was consumed.
+     */
+    private Object parseFrame() {
+        int available = buffer.remaining();
+        if (available < 2) return NEED_INPUT;
+
+        int start = buffer.position();
+        byte[] data = buffer.array();
+        int b0 = data[start] & 0xFF;
+        int b1 = data[start + 1] & 0xFF;
+
+        boolean fin = (b0 & 0x80) != 0;
+        boolean rsv1 = (b0 & 0x40) != 0;
+        int opcode = b0 & 0x0F;
+        boolean masked = (b1 & 0x80) != 0;
+        long length = b1 & 0x7F;
+        int header = 2;
+
+        if (length == 126) {
+            if (available < 4) return NEED_INPUT;
+            length = ((data[start + 2] & 0xFF) << 8) | (data[start + 3] & 0xFF);
+            header = 4;
+        } else if (length == 127) {
+            if (available < 10) return NEED_INPUT;
+            length = ByteBuffer.wrap(data, start + 2, 8).getLong();
+            header = 10;
+        }
+
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+            close(1009);
+            return null;
+        }
+
+        int maskOffset = start + header;
+        if (masked) header += 4;
+
+        if (available < header + length) {
+            return NEED_INPUT;
+        }
+
+        int payloadOffset = start + header;
+        int payloadLength = (int) length;
+
+        if (masked) {
+            unmask(data, payloadOffset, payloadLength, data, maskOffset);
+        }
+
+        buffer.position(payloadOffset + payloadLength);
+
+        switch (opcode) {
+            case OP_PING -> {
+                sendFrame(OP_PONG, data, payloadOffset, payloadLength, false);
+                return null;
+            }
+
+            case OP_PONG -> {
+                return null;
+            }
+
+            case OP_CLOSE -> {
+                close(1000);
+                return null;
+            }
+        }
+
+        if (opcode != OP_CONTINUATION) {
+            message.reset();
+            messageOpcode = opcode;
+            messageCompressed = rsv1;
+        }
+
+        if (message.size() + payloadLength > MAX_MESSAGE_SIZE) {
+            close(1009);
+            return null;
+        }
+
+        message.write(data, payloadOffset, payloadLength);
+
+        if (!fin) return null;
+
+        byte[] payload = message.toByteArray();
+        message.reset();
+
+        if (messageCompressed) {
+            payload = inflate(payload);
+            if (payload == null) return null;
+        }
+
+        return messageOpcode == OP_BINARY
+                ? new LoxBytes(payload)
+                : new LoxString(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * XORs the payload with the 4-byte masking key, eight bytes at a time while it can.
+     */
+    public static void unmask(byte[] data, int offset, int length, byte[] key, int keyOffset) {
+        int k = ((key[keyOffset] & 0xFF) << 24) | ((key[keyOffset + 1] & 0xFF) << 16) | ((key[keyOffset + 2] & 0xFF) << 8) | (key[keyOffset + 3] & 0xFF);
+        long wide = ((long) k << 32) | (k & 0xFFFFFFFFL);
+
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long word = (long) LONGS.get(data, offset + i);
+            LONGS.set(data, offset + i, word ^ wide);
+        }
+
+        for (; i < length; i++) {
+            data[offset + i] ^= (byte) (k >>> (24 - 8 * (i & 3)));
+        }
+    }
+
+    // null if the payload isn't valid deflate data, which closes the connection
+    private byte[] inflate(byte[] payload) {
+        if (inflater == null) inflater = new Inflater(true);
+        inflater.reset();
+
+        byte[] input = Arrays.copyOf(payload, payload.length + DEFLATE_TAIL.length);
+        System.arraycopy(DEFLATE_TAIL, 0, input, payload.length, DEFLATE_TAIL.length);
+        inflater.setInput(input);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 2);
+        byte[] chunk = new byte[8192];
+
+        try {
+            while (!inflater.needsInput() || !inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                out.write(chunk, 0, n);
+
+                if (out.size() > MAX_MESSAGE_SIZE) break;
+            }
+        } catch (DataFormatException e) {
+            close(1007);
+            return null;
+        }
+
+        return out.toByteArray();
+    }
+
+    private byte[] deflate(byte[] payload) {
+        if (deflater == null) deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.reset();
+        deflater.setInput(payload);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 16);
+        byte[] chunk = new byte[8192];
+        int n;
+
+        do {
+            n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            out.write(chunk, 0, n);
+        } while (n == chunk.length);
+
+        byte[] compressed = out.toByteArray();
+        // RFC 7692: the trailing empty stored block is implied
+        return Arrays.copyOf(compressed, Math.max(0, compressed.length - DEFLATE_TAIL.length));
+    }
+
+    public boolean sendMessage(int opcode, byte[] payload) {
+        writeLock.lock();
+
+        try {
+            if (deflate && payload.length > 0 && !closed) {
+                byte[] compressed = deflate(payload);
+                return sendFrame(opcode, compressed, 0, compressed.length, true);
+            }
+
+            return sendFrame(opcode, payload, 0, payload.length, false);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean sendFrame(int opcode, byte[] payload, int offset, int length, boolean compressed) {
+        writeLock.lock();
+
+        try {
+            return !closed && writeFrame(encodeFrame(opcode, payload, offset, length, compressed));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean writeFrame(byte[] frame) {
+        try {
+            if (socket instanceof SSLSocket sslSocket) {
+                OutputStream os = sslSocket.getOutputStream();
+                os.write(frame);
+                os.flush();
+            } else {
+                ByteBuffer out = ByteBuffer.wrap(frame);
+                AsynchronousSocketChannel channel = (AsynchronousSocketChannel) socket;
+
+                while (out.hasRemaining()) {
+                    channel.write(out).get();
+                }
+            }
+
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public static byte[] encodeFrame(int opcode, byte[] payload, int offset, int length, boolean compressed) {
+        int header = length <= 125 ? 2 : length <= 65535 ? 4 : 10;
+        byte[] frame = new byte[header + length];
+
+        frame[0] = (byte) (0x80 | (compressed ? 0x40 : 0) | opcode);
+
+        if (length <= 125) {
+            frame[1] = (byte) length;
+        } else if (length <= 65535) {
+            frame[1] = 126;
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+        } else {
+            frame[1] = 127;
+            ByteBuffer.wrap(frame, 2, 8).putLong(length);
+        }
+
+        System.arraycopy(payload, offset, frame, header, length);
+        return frame;
+    }
+
+    public void close(int code) {
+        writeLock.lock();
+
+        try {
+            if (closed) return;
+
+            byte[] payload = { (byte) (code >>> 8), (byte) code };
+            if (code != 1006) writeFrame(encodeFrame(OP_CLOSE, payload, 0, payload.length, false));
+
+            closed = true;
+            if (deflater != null) deflater.end();
+        } finally {
+            writeLock.unlock();
+        }
+
+        // wakes up a receive blocked on the socket
+        try {
+            if (socket instanceof SSLSocket sslSocket) sslSocket.close();
+            else ((AsynchronousSocketChannel) socket).close();
+        } catch (IOException ignored) {}
+
+        // a reader that is still parsing releases its state itself on the way out
+        if (!readLock.isHeldByCurrentThread() && readLock.tryLock()) {
+            try {
+                releaseReadState();
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (name.lexeme.equals("is_open")) {
+            return !closed;
+        }
+
+        if (methods.containsKey(name.lexeme)) {
+            return methods.get(name.lexeme);
+        }
+
+        throw new RuntimeError(name, "RuntimeError", "No such method '" + name.lexeme + "'.", null);
+    }
+
+    @Override
+    public String toString() {
+        return "<websocket>";
+    }
+}
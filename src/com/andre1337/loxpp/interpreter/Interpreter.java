@@ -1,6 +1,7 @@
 package com.andre1337.loxpp.interpreter;
 
 import com.andre1337.loxpp.Lox;
+import com.andre1337.loxpp.ast.AstStats;
 import com.andre1337.loxpp.ast.Expr;
 import com.andre1337.loxpp.ast.Stmt;
 import com.andre1337.loxpp.classes.*;
@@ -13,6 +14,8 @@ import com.andre1337.loxpp.sema.Resolver;
 import java.io.File;
 import java.net.http.HttpClient;
 import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -21,34 +24,45 @@ import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-  public static class LocalLocation {
-    public final int depth;
-    public final int index;
-    public LocalLocation(int depth, int index) {
-      this.depth = depth;
-      this.index = index;
+  // the values hoisted out of one run of a loop; `epochs` is the user call count each was computed at
+  private static final class LoopFrame {
+    final Object[] values;
+    final long[] epochs;
+    final LoopFrame enclosing;
+
+    LoopFrame(int size, LoopFrame enclosing) {
+      this.values = new Object[size];
+      this.epochs = new long[size];
+      this.enclosing = enclosing;
+      Arrays.fill(values, uninitialized);
     }
   }
 
-  private Map<Expr, LocalLocation> locals = new HashMap<>();
   private static final Object uninitialized = new Object();
+  private LoopFrame loopFrame = null;
+  private long userCalls = 0;
   private static final Map<String, LoxModule> moduleCache = new HashMap<>();
+  // modules being compiled ahead of their import on the common fork-join pool, by absolute path
+  private static final Map<String, ForkJoinTask<List<Stmt>>> precompiled = new ConcurrentHashMap<>();
+  // stands in for a module whose tree was taken, so it isn't compiled again
+  private static final ForkJoinTask<List<Stmt>> TAKEN = ForkJoinTask.adapt(() -> null);
   private static final Set<String> loadingModules = new HashSet<>();
   public Environment globals = new Environment();
   public Environment environment = globals;
 
-  private Interpreter(Environment globals, Map<Expr, LocalLocation> locals) {
+  private Interpreter(Environment globals) {
     this.globals = globals;
     this.environment = globals;
-    this.locals = locals;
   }
 
   public Interpreter spawnAsyncWorker() {
-    return new Interpreter(this.globals, this.locals);
+    return new Interpreter(this.globals);
   }
 
   public Interpreter() {
@@ -118,6 +132,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     });
 
+    globals.define("___tcp_read_bytes___", new LoxCallable() {
+      @Override public int arity() {
+        return 2; // 1: socket channel, 2: buffer size
+      }
+      @Override public Object call(Interpreter interpreter, List<Object> args, boolean isNew) {
+        return LoxTcpCore.___tcp_read_bytes___(args.getFirst(), args.get(1))
+                .thenApply(bytes -> bytes == null ? null : new LoxBytes(bytes));
+      }
+    });
+
     globals.define("___tcp_write___", new LoxCallable() {
       @Override public int arity() {
         return 2; // 1: socket channel, 2: data object
@@ -127,6 +151,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     });
 
+    globals.define("___tcp_write_json___", new LoxCallable() {
+      @Override public int arity() {
+        return 2; // 1: socket channel, 2: value to serialize
+      }
+      @Override public Object call(Interpreter interpreter, List<Object> args, boolean isNew) {
+        return LoxTcpCore.___tcp_write_json___(args.getFirst(), args.get(1));
+      }
+    });
+
     globals.define("___tcp_close___", new LoxCallable() {
       @Override public int arity() { return 1; }
       @Override public Object call(Interpreter interpreter, List<Object> args, boolean isNew) {
@@ -150,6 +183,84 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     });
 
+    globals.define("parse_json_as", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2; // 1: class, 2: json text
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        if (!(arguments.getFirst() instanceof LoxClass klass)) {
+          throw new RuntimeError(null, "RuntimeError", "parse_json_as expects a class as its first argument.", null);
+        }
+
+        Object arg = arguments.get(1);
+        String jsonStr = (arg instanceof LoxString loxStr) ? loxStr.value : stringify(arg);
+
+        return new LoxJsonParser(interpreter, jsonStr).parseAs(klass);
+      }
+    });
+
+    globals.define("parse_json_lazy", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        Object arg = arguments.getFirst();
+        String jsonStr = (arg instanceof LoxString loxStr) ? loxStr.value : arg.toString();
+
+        return new LoxJsonParser(interpreter, jsonStr, 0, jsonStr.length(), true).parse();
+      }
+    });
+
+    globals.define("json_reader", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: string, socket or http response
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        java.io.Reader reader = switch (arguments.getFirst()) {
+          case LoxString loxStr -> new java.io.StringReader(loxStr.value);
+          case LoxHttpResponse response -> response.reader();
+          case javax.net.ssl.SSLSocket sslSocket -> {
+            try {
+              yield new java.io.InputStreamReader(sslSocket.getInputStream(), StandardCharsets.UTF_8);
+            } catch (java.io.IOException e) {
+              throw new RuntimeError(null, "RuntimeError", "Could not read from the socket: " + e.getMessage(), null);
+            }
+          }
+          case AsynchronousSocketChannel channel -> new java.io.InputStreamReader(java.nio.channels.Channels.newInputStream(channel), StandardCharsets.UTF_8);
+          case null, default -> new java.io.StringReader(stringify(arguments.getFirst()));
+        };
+
+        return new LoxJsonReader(interpreter, reader);
+      }
+    });
+
+    globals.define("json_reader_file", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: file path
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        String path = arguments.getFirst() instanceof LoxString loxStr ? loxStr.value : stringify(arguments.getFirst());
+
+        try {
+          return new LoxJsonReader(interpreter, java.nio.file.Files.newBufferedReader(java.nio.file.Path.of(path), StandardCharsets.UTF_8));
+        } catch (java.io.IOException e) {
+          throw new RuntimeError(null, "RuntimeError", "Could not open file '" + path + "'.", null);
+        }
+      }
+    });
+
     globals.define("stringify_json", new LoxCallable() {
       @Override
       public int arity() {
@@ -177,14 +288,62 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         try {
           byte[] bytes = Files.readAllBytes(Path.of(filePath));
-          String content = new String(bytes, StandardCharsets.ISO_8859_1);
-          return new LoxString(content);
+          return new LoxString(new String(bytes, StandardCharsets.UTF_8));
         } catch (Exception e) {
           return null;
         }
       }
     });
 
+    globals.define("read_file_bytes", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        Object arg = arguments.getFirst();
+        String filePath = (arg instanceof LoxString loxStr) ? loxStr.value : arg.toString();
+
+        try {
+          return new LoxBytes(Files.readAllBytes(Path.of(filePath.trim())));
+        } catch (Exception e) {
+          return null;
+        }
+      }
+    });
+
+    globals.define("encode", new LoxCallable() {
+      @Override
+      public int arity() {
+        return -1; // 1: string, 2: optional charset (UTF-8 by default)
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        Charset charset = LoxBytes.charset(null, arguments.size() > 1 ? arguments.get(1) : null);
+        return new LoxBytes(LoxBytes.toBytes(arguments.getFirst(), charset));
+      }
+    });
+
+    globals.define("decode", new LoxCallable() {
+      @Override
+      public int arity() {
+        return -1; // 1: bytes, 2: optional charset (UTF-8 by default)
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        if (!(arguments.getFirst() instanceof LoxBytes bytes)) {
+          throw new RuntimeError(null, "RuntimeError", "decode expects Bytes.", "Use 'encode' or 'read_file_bytes' to get some.");
+        }
+
+        Charset charset = LoxBytes.charset(null, arguments.size() > 1 ? arguments.get(1) : null);
+        return new LoxString(new String(bytes.bytes, charset));
+      }
+    });
+
     globals.define("render_template", new LoxCallable() {
       @Override
       public int arity() {
@@ -196,34 +355,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object htmlArg = arguments.getFirst();
         String html = (htmlArg instanceof LoxString loxStr) ? loxStr.value : htmlArg.toString();
 
-        Object dictArg = arguments.get(1);
-
-        if (dictArg instanceof Map<?, ?> data) {
-          for (Map.Entry<?, ?> entry : data.entrySet()) {
-            String key = entry.getKey() instanceof LoxString ? ((LoxString) entry.getKey()).value : entry.getKey().toString();
-
-            key = key.replace("\"", "");
+        byte[] rendered = LoxTemplate.of(html).render(arguments.get(1));
+        return new LoxString(new String(rendered, StandardCharsets.UTF_8));
+      }
+    });
 
-            String value;
-            Object valObj = entry.getValue();
+    globals.define("render_template_file", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2; // 1: template path, 2: a map/dictionary
+      }
 
-            if (valObj instanceof LoxString loxStr) {
-              value = loxStr.value;
-            } else if (valObj instanceof String str) {
-              value = str;
-            } else if (valObj != null) {
-              value = valObj.toString();
-              if (value.endsWith(".0")) value = value.substring(0, value.length() - 2);
-            } else {
-              value = "null";
-            }
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        String path = arguments.getFirst() instanceof LoxString loxStr ? loxStr.value : stringify(arguments.getFirst());
 
-            // replace {{ }} tags with the actual value
-            html = html.replace("{{ " + key + " }}", value).replace("{{" + key + "}}", value);
-          }
+        try {
+          byte[] rendered = LoxTemplate.ofFile(java.nio.file.Path.of(path)).render(arguments.get(1));
+          return new LoxString(new String(rendered, StandardCharsets.UTF_8));
+        } catch (java.io.IOException e) {
+          throw new RuntimeError(null, "RuntimeError", "Could not read template '" + path + "'.", null);
         }
-
-        return new LoxString(html);
       }
     });
 
@@ -258,11 +410,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         String filePath = (pathArg instanceof LoxString loxStr) ? loxStr.value : pathArg.toString();
         filePath = filePath.replace("\"", "").trim();
 
-        Object contentArg = arguments.get(1);
-        String content = (contentArg instanceof LoxString loxStr) ? loxStr.value : contentArg.toString();
+        // Bytes are written as they are, text as UTF-8
+        byte[] content = LoxBytes.toBytes(arguments.get(1), StandardCharsets.UTF_8);
 
         try {
-          Files.writeString(Path.of(filePath), content, StandardCharsets.ISO_8859_1);
+          Files.write(Path.of(filePath), content);
           return true;
         } catch (Exception e) {
           System.err.println("Error while reading file: " + e.getMessage());
@@ -319,6 +471,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     });
 
+    globals.define("___http_client___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: options dictionary
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return LoxHttpClient.fromOptions(arguments.getFirst());
+      }
+    });
+
+    globals.define("___http_request___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 4; // 1: url, 2: method, 3: headers, 4: body
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return LoxHttpClient.DEFAULT.request(interpreter, arguments);
+      }
+    });
+
     globals.define("___ws_handshake___", new LoxCallable() {
       @Override
       public int arity() {
@@ -340,31 +516,44 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     });
 
+    globals.define("___ws_extensions___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: client's Sec-WebSocket-Extensions header (or nil)
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        Object offer = arguments.getFirst();
+        String accepted = LoxWebSocket.negotiateExtensions(offer == null ? null : offer instanceof LoxString loxStr ? loxStr.value : offer.toString());
+
+        return accepted == null ? null : new LoxString(accepted);
+      }
+    });
+
+    globals.define("___ws_connection___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2; // 1: upgraded socket, 2: permessage-deflate negotiated
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return new LoxWebSocket(arguments.getFirst(), isTruthy(arguments.get(1)));
+      }
+    });
+
     globals.define("___ws_encode___", new LoxCallable() {
       @Override
       public int arity() { return 1; }
 
       @Override
       public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
-        String message = arguments.getFirst().toString();
-        byte[] msgBytes = message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-
-        baos.write(129);
-
-        if (msgBytes.length <= 125) {
-          baos.write(msgBytes.length);
-        } else if (msgBytes.length <= 65535) {
-          baos.write(126);
-          baos.write((msgBytes.length >> 8) & 255);
-          baos.write(msgBytes.length & 255);
-        }
-
-        try {
-          baos.write(msgBytes);
-        } catch(Exception ignored) {}
+        Object message = arguments.getFirst();
+        byte[] msgBytes = (message instanceof LoxString loxStr ? loxStr.value : stringify(message)).getBytes(StandardCharsets.UTF_8);
+        byte[] frame = LoxWebSocket.encodeFrame(LoxWebSocket.OP_TEXT, msgBytes, 0, msgBytes.length, false);
 
-        return new LoxString(baos.toString(StandardCharsets.ISO_8859_1));
+        return new LoxBytes(frame);
       }
     });
 
@@ -377,41 +566,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         try {
           if (arguments.getFirst() == null) return null;
 
-          Object arg = arguments.getFirst();
-          String rawStr = arg.toString();
-          try {
-            java.lang.reflect.Field valueField = arg.getClass().getField("value");
-            rawStr = (String) valueField.get(arg);
-          } catch (Exception ignored) {}
-
-          byte[] raw = rawStr.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+          // frames read with ___tcp_read_bytes___ arrive intact; strings are taken byte-per-char
+          byte[] raw = arguments.getFirst() instanceof LoxBytes bytes
+                  ? bytes.bytes.clone()
+                  : LoxBytes.toBytes(arguments.getFirst(), StandardCharsets.ISO_8859_1);
           if (raw.length < 2) return null;
 
           int opcode = raw[0] & 0x0F;
-          if (opcode == 8) return "DISCONNECT_SIGNAL";
+          if (opcode == LoxWebSocket.OP_CLOSE) return "DISCONNECT_SIGNAL";
 
           boolean masked = (raw[1] & 0x80) != 0;
-          int payloadLength = raw[1] & 0x7F;
+          long payloadLength = raw[1] & 0x7F;
           int offset = 2;
 
-          if (payloadLength == 126) { offset += 2; }
-          else if (payloadLength == 127) { offset += 8; }
-
-          byte[] masks = new byte[4];
-          if (masked) {
-            System.arraycopy(raw, offset, masks, 0, 4);
-            offset += 4;
+          if (payloadLength == 126) {
+            payloadLength = ((raw[2] & 0xFF) << 8) | (raw[3] & 0xFF);
+            offset += 2;
+          } else if (payloadLength == 127) {
+            payloadLength = java.nio.ByteBuffer.wrap(raw, 2, 8).getLong();
+            offset += 8;
           }
 
-          int actualLen = raw.length - offset;
-          if (actualLen <= 0) return "";
+          int maskOffset = offset;
+          if (masked) offset += 4;
 
-          byte[] decoded = new byte[actualLen];
-          for (int i = 0; i < actualLen; i++) {
-            decoded[i] = (byte) (raw[offset + i] ^ (masked ? masks[i % 4] : 0));
+          int actualLen = (int) Math.min(payloadLength, raw.length - offset);
+          if (actualLen <= 0) return new LoxString("");
+
+          if (masked) {
+            LoxWebSocket.unmask(raw, offset, actualLen, raw, maskOffset);
           }
 
-          return new LoxString(new String(decoded, java.nio.charset.StandardCharsets.UTF_8));
+          return new LoxString(new String(raw, offset, actualLen, StandardCharsets.UTF_8));
         } catch (Exception e) {
           return null;
         }
@@ -495,57 +681,216 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     });
 
-    globals.define("___sort_docs___", new LoxCallable() {
+    globals.define("___map_new___", new LoxCallable() {
       @Override
       public int arity() {
-        return 3; //1: array, 2: sort key, 3: ascending
+        return 0;
       }
 
-      private Object getMapValue(Map<?, ?> map, String searchKey) {
-        for (Map.Entry<?, ?> entry: map.entrySet()) {
-          String k = entry.getKey() instanceof LoxString loxStr ? loxStr.value : entry.getKey().toString();
-          k = k.replace("\"", "");
-          if (k.equals(searchKey)) return entry.getValue();
-        }
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return new LoxDict();
+      }
+    });
+
+    globals.define("___map_get___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2; // 1: table, 2: key
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return ((LoxDict) arguments.getFirst()).get(mapKey(arguments.get(1)));
+      }
+    });
+
+    globals.define("___map_set___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 3; // 1: table, 2: key, 3: value
+      }
 
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        ((LoxDict) arguments.getFirst()).put(mapKey(arguments.get(1)), arguments.get(2));
         return null;
       }
+    });
+
+    globals.define("___map_has___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2; // 1: table, 2: key
+      }
 
       @Override
       public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
-        if (!(arguments.getFirst() instanceof LoxArray loxArray)) return arguments.getFirst();
+        return ((LoxDict) arguments.getFirst()).containsKey(mapKey(arguments.get(1)));
+      }
+    });
 
-        String key = arguments.get(1) instanceof LoxString loxStr ? loxStr.value : arguments.get(1).toString();
-        key = key.replace("\"", "");
+    globals.define("___map_remove___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2; // 1: table, 2: key
+      }
 
-        boolean ascending = (boolean) arguments.get(2);
-        List<Object> sorted = new ArrayList<>(loxArray.elements);
-        String finalKey = key;
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return ((LoxDict) arguments.getFirst()).remove(mapKey(arguments.get(1)));
+      }
+    });
 
-        sorted.sort((a, b) -> {
-          if (!(a instanceof Map<?, ?> mapA) || !(b instanceof Map<?, ?> mapB)) return 0;
+    globals.define("___map_size___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: table
+      }
 
-          Object valA = getMapValue(mapA, finalKey);
-          Object valB = getMapValue(mapB, finalKey);
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return (double) ((LoxDict) arguments.getFirst()).size();
+      }
+    });
 
-          if (valA == null && valB == null) return 0;
-          if (valA == null) return ascending ? -1 : 1;
-          if (valB == null) return ascending ? 1 : -1;
+    globals.define("___map_keys___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: table
+      }
 
-          int comparison;
-          if (valA instanceof Double dA && valB instanceof Double dB) {
-            comparison = Double.compare(dA, dB);
-          } else if (valA instanceof Boolean bA && valB instanceof Boolean bB) {
-            comparison = Boolean.compare(bA, bB);
-          } else {
-            String strA = valA instanceof LoxString loxStr ? loxStr.value : valA.toString();
-            String strB = valB instanceof LoxString loxStr ? loxStr.value : valB.toString();
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        List<Object> keys = new ArrayList<>();
+        for (Object key : ((LoxDict) arguments.getFirst()).keySet()) keys.add(copyKey(key));
+        return new LoxArray(interpreter, keys);
+      }
+    });
 
-            comparison = strA.compareTo(strB);
-          }
+    globals.define("___set___", new LoxNativeClass() {
+      @Override
+      public int arity() {
+        return 0;
+      }
 
-          return ascending ? comparison : -comparison;
-        });
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return new LoxSet(interpreter);
+      }
+    });
+
+    globals.define("___deque___", new LoxNativeClass() {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return new LoxDeque(interpreter);
+      }
+    });
+
+    globals.define("___priority_queue___", new LoxNativeClass() {
+      @Override
+      public int arity() {
+        return -1; // 1: optional comparator (a, b)
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        LoxCallable comparator = arguments.isEmpty() ? null : LoxCallable.expect(arguments.getFirst(), "comparator");
+        return new LoxPriorityQueue(interpreter, comparator);
+      }
+    });
+
+    globals.define("___float64_array___", new LoxNativeClass() {
+      @Override
+      public int arity() {
+        return 1; // 1: a length or an array of numbers
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return LoxFloat64Array.from(interpreter, arguments.getFirst());
+      }
+    });
+
+    globals.define("___table_from_rows___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: array of dictionaries
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return LoxTable.fromRows(interpreter, (LoxArray) arguments.getFirst());
+      }
+    });
+
+    globals.define("___table_read_csv___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: file path
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        String path = arguments.getFirst() instanceof LoxString loxStr ? loxStr.value : stringify(arguments.getFirst());
+
+        try {
+          return LoxTable.readCsv(interpreter, java.nio.file.Path.of(path));
+        } catch (java.io.IOException e) {
+          throw new RuntimeError(null, "RuntimeError", "Could not read file '" + path + "'.", null);
+        }
+      }
+    });
+
+    globals.define("___table_read_json_lines___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1; // 1: file path
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        String path = arguments.getFirst() instanceof LoxString loxStr ? loxStr.value : stringify(arguments.getFirst());
+
+        try {
+          return LoxTable.readJsonLines(interpreter, java.nio.file.Path.of(path));
+        } catch (java.io.IOException e) {
+          throw new RuntimeError(null, "RuntimeError", "Could not read file '" + path + "'.", null);
+        }
+      }
+    });
+
+    globals.define("___string_builder___", new LoxNativeClass() {
+      @Override
+      public int arity() {
+        return -1; // 1: optional initial contents
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        return new LoxStringBuilder(arguments.isEmpty() ? "" : stringify(arguments.getFirst()));
+      }
+    });
+
+    globals.define("___sort_docs___", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 3; //1: array, 2: sort key, 3: ascending
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments, boolean isNewCall) {
+        if (!(arguments.getFirst() instanceof LoxArray loxArray)) return arguments.getFirst();
+
+        boolean ascending = (boolean) arguments.get(2);
+        List<Object> sorted = new ArrayList<>(loxArray.elements);
+
+        LoxSort.sortBy(sorted, LoxSort.keyExtractor(interpreter, dictKey(arguments.get(1))), ascending);
 
         return new LoxArray(interpreter, sorted);
       }
@@ -688,8 +1033,55 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     stmt.accept(this);
   }
 
+  // resolutions live on the nodes, so every interpreter running a tree (async workers, modules) sees them
   public void resolve(Expr expr, int depth, int index) {
-    locals.put(expr, new LocalLocation(depth, index));
+    switch (expr) {
+      case Expr.Variable variable -> {
+        variable.depth = depth;
+        variable.index = index;
+      }
+
+      case Expr.Assign assign -> {
+        assign.depth = depth;
+        assign.index = index;
+      }
+
+      case Expr.This self -> {
+        self.depth = depth;
+        self.index = index;
+      }
+
+      case Expr.Super superExpr -> {
+        superExpr.depth = depth;
+        superExpr.index = index;
+      }
+
+      default -> throw new IllegalArgumentException("Only variables, assignments, self and super are resolved.");
+    }
+  }
+
+  /**
+   * Counts Lox code being run (functions, methods, lazy values). A hoisted value that reads objects
+   * is only reused while this stays the same, as any such code could have changed what it read.
+   */
+  public void countUserCall() {
+    userCalls++;
+  }
+
+  public boolean isResolvedLocally(Expr expr) {
+    return switch (expr) {
+      case Expr.Variable variable -> variable.depth >= 0;
+      case Expr.Assign assign -> assign.depth >= 0;
+      case Expr.This self -> self.depth >= 0;
+      case Expr.Super superExpr -> superExpr.depth >= 0;
+      default -> false;
+    };
+  }
+
+  // the Optimizer runs after the Resolver; a node it rebuilds keeps the original's slot
+  public void inheritResolution(Expr.Assign original, Expr.Assign replacement) {
+    replacement.depth = original.depth;
+    replacement.index = original.index;
   }
 
   public void executeBlock(List<Stmt> statements, Environment env) {
@@ -714,6 +1106,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
+    int slot = environment.slots.size();
     environment.define(stmt.name.lexeme, null);
     Object superclass = null;
 
@@ -748,7 +1141,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment = environment.enclosing;
     }
 
-    environment.assign(stmt.name, klass);
+    // by slot as well as by name: methods resolve sibling classes through the slot
+    environment.assignAt(0, stmt.name, slot, klass);
     return null;
   }
 
@@ -766,7 +1160,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     LoxClass meta = new LoxClass(null, stmt.name.lexeme + "_meta", stmt.name, null, staticMethods, this);
-    return new LoxClass(meta, stmt.name.lexeme, stmt.name, superclass, methods, this);
+    LoxClass klass = new LoxClass(meta, stmt.name.lexeme, stmt.name, superclass, methods, this);
+    klass.declareFields(stmt.declaredFields);
+    return klass;
   }
 
   private void verifySignature(LoxFunction traitDef, LoxFunction classImpl) {
@@ -873,6 +1269,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitTraitStmt(Stmt.Trait stmt) {
+    int slot = environment.slots.size();
     environment.define(stmt.name.lexeme, null);
     Map<String, LoxFunction> methods = applyTraits(stmt.traits);
 
@@ -889,7 +1286,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     LoxTrait trait = new LoxTrait(stmt.name, methods);
-    environment.assign(stmt.name, trait);
+    environment.assignAt(0, stmt.name, slot, trait);
     return null;
   }
 
@@ -951,10 +1348,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         continue;
       }
 
-      if (!dict.containsKey(key.lexeme)) {
+      LoxString dictKey = new LoxString(key.lexeme);
+
+      if (!dict.containsKey(dictKey)) {
         throw new RuntimeError(key, "RuntimeError", "Key '" + key.lexeme + "' is not present in the dictionary.", null);
       }
-      environment.define(key.lexeme, dict.get(key.lexeme));
+      environment.define(key.lexeme, dict.get(dictKey));
     }
 
     return null;
@@ -980,62 +1379,154 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
-    while (isTruthy(evaluate(stmt.condition))) {
-      execute(stmt.body);
+    LoopFrame enclosingFrame = loopFrame;
+    if (stmt.hoisted > 0) loopFrame = new LoopFrame(stmt.hoisted, enclosingFrame);
+
+    try {
+      while (isTruthy(evaluate(stmt.condition))) {
+        execute(stmt.body);
+      }
+    } finally {
+      loopFrame = enclosingFrame;
     }
 
     return null;
   }
 
+  @Override
+  public Object visitHoistedExpr(Expr.Hoisted expr) {
+    Object value = loopFrame.values[expr.index];
+
+    if (value != uninitialized && (!expr.readsHeap || loopFrame.epochs[expr.index] == userCalls)) {
+      return value;
+    }
+
+    long before = userCalls;
+    value = evaluate(expr.expression);
+
+    // if computing it ran Lox code (an operator overload, a user-defined len), it isn't reused; nor is
+    // a string, array or object, since the loop body may change the one it was handed
+    if (userCalls == before && (value == null || value instanceof Double || value instanceof Boolean)) {
+      loopFrame.values[expr.index] = value;
+      loopFrame.epochs[expr.index] = before;
+    }
+
+    return value;
+  }
+
   @Override
   public Void visitForInStmt(Stmt.ForIn stmt) {
-    Object iterable = getValue(evaluate(stmt.iterable));
+    LoopFrame enclosingFrame = loopFrame;
+    if (stmt.hoisted > 0) loopFrame = new LoopFrame(stmt.hoisted, enclosingFrame);
 
-    switch (iterable) {
-      case LoxArray loxArray -> {
-        int i = 0;
+    try {
+      if (stmt.rangeLoop) {
+        iterateRange(stmt, (Expr.Binary) stmt.iterable);
+      } else {
+        iterate(stmt, getValue(evaluate(stmt.iterable)));
+      }
+    } finally {
+      loopFrame = enclosingFrame;
+    }
 
-        for (Object element : loxArray.elements) {
-          environment.define(stmt.key.lexeme, element);
+    return null;
+  }
 
-          if (stmt.value != null) {
-            environment.define(stmt.value.lexeme, i);
-          }
+  /**
+   * The scope of a for-in loop: the key, the value, then whatever the body declares. Every element
+   * reuses it, unless the body makes closures, which must each keep the element they saw.
+   */
+  private final class ForInScope {
+    private final Stmt.ForIn stmt;
+    private final int declared;
+    private Environment scope;
+
+    ForInScope(Stmt.ForIn stmt) {
+      this.stmt = stmt;
+      this.scope = new Environment(environment);
+
+      scope.define(stmt.key.lexeme, null);
+      if (stmt.value != null) scope.define(stmt.value.lexeme, null);
+
+      this.declared = scope.slots.size();
+    }
+
+    // for everything but dicts, the value is the element's position
+    void element(Object key, int position) {
+      run(key, stmt.value == null ? null : (double) position);
+    }
+
+    void run(Object key, Object value) {
+      scope.assignAt(0, stmt.key, 0, key);
+      if (stmt.value != null) scope.assignAt(0, stmt.value, 1, value);
+
+      executeBlock(stmt.body, scope);
+      scope = nextIteration(scope, declared, stmt.closures);
+    }
+  }
+
+  // `for x in a..b` counts from a to b inclusive, like LoxRange, without allocating one
+  private void iterateRange(Stmt.ForIn stmt, Expr.Binary range) {
+    Object start = getValue(evaluate(range.left));
+    Object end = getValue(evaluate(range.right));
+
+    if (!(start instanceof Double first) || !(end instanceof Double last)) {
+      throw new RuntimeError(range.operator, "RuntimeError", "Range bounds must be numbers.", null);
+    }
 
-          i++;
-          executeBlock(stmt.body, environment);
+    ForInScope scope = new ForInScope(stmt);
+    int i = 0;
+
+    for (double current = first; current <= last; current++) {
+      scope.element(current, i++);
+    }
+  }
+
+  private void iterate(Stmt.ForIn stmt, Object iterable) {
+    ForInScope scope = new ForInScope(stmt);
+
+    switch (iterable) {
+      case LoxArray loxArray -> {
+        List<Object> elements = loxArray.elements;
+
+        // by index, so the body may append to the array it walks
+        for (int i = 0; i < elements.size(); i++) {
+          scope.element(elements.get(i), i);
         }
       }
 
-      case String str -> {
-        for (int i = 0; i < str.length(); i++) {
-          environment.define(stmt.key.lexeme, str.charAt(i));
-          executeBlock(stmt.body, environment);
+      case LoxRange range -> {
+        int i = 0;
+
+        while (range.hasNext()) {
+          scope.element(range.current++, i++);
         }
       }
 
+      case LoxString str -> iterateString(scope, str.value);
+      case String str -> iterateString(scope, str);
+
       case LoxTuple tuple -> {
         for (int i = 0; i < tuple.size(); i++) {
-          environment.define(stmt.key.lexeme, tuple.elements().get(i));
-          executeBlock(stmt.body, environment);
+          scope.element(tuple.get(i), i);
         }
       }
 
       case Map<?, ?> dictionary -> {
-        for (Map.Entry<?, ?> entry : dictionary.entrySet()) {
-          Object mapKey = entry.getKey();
-          Object mapVal = entry.getValue();
-
-          if (mapKey instanceof String str) mapKey = new LoxString(str);
-          if (mapVal instanceof String str) mapVal = new LoxString(str);
-
-          environment.define(stmt.key.lexeme, mapKey);
+        try {
+          // LoxDict walks its entry arrays here, no Map.Entry per element
+          dictionary.forEach((key, value) -> scope.run(copyKey(key), value instanceof String str ? new LoxString(str) : value));
+        } catch (ConcurrentModificationException e) {
+          throw new RuntimeError(stmt.keyword, "RuntimeError", "Dictionary changed while iterating over it.", null);
+        }
+      }
 
-          if (stmt.value != null) {
-            environment.define(stmt.value.lexeme, mapVal);
-          }
+      // native collections hand over a Java iterator, no has_next/next calls per element
+      case Iterable<?> elements -> {
+        int i = 0;
 
-          executeBlock(stmt.body, environment);
+        for (Object element : elements) {
+          scope.element(element, i++);
         }
       }
 
@@ -1052,14 +1543,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           );
         }
 
-        LoxFunction hasNext = klass.findMethod("has_next").bind(instance);
-        LoxFunction next = klass.findMethod("next").bind(instance);
-
-        while ((boolean) Objects.requireNonNull(hasNext.call(this, List.of(), false))) {
-          Object currentValue = next.call(this, Collections.emptyList(), false);
-          environment.define(stmt.key.lexeme, currentValue);
+        LoxFunction hasNext = klass.findMethod("has_next");
+        LoxFunction next = klass.findMethod("next");
+        int i = 0;
 
-          executeBlock(stmt.body, environment);
+        while ((boolean) Objects.requireNonNull(hasNext.invoke(this, instance, List.of()))) {
+          scope.element(next.invoke(this, instance, Collections.emptyList()), i++);
         }
       }
 
@@ -1071,8 +1560,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                       null
               );
     }
+  }
 
-    return null;
+  // one-character strings, a code point at a time; each is a fresh string, since strings are mutable
+  private static void iterateString(ForInScope scope, String str) {
+    int position = 0;
+
+    for (int i = 0; i < str.length(); i += Character.charCount(str.codePointAt(i))) {
+      scope.element(new LoxString(Character.toString(str.codePointAt(i))), position++);
+    }
   }
 
   @Override
@@ -1185,10 +1681,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
       loadingModules.add(absoluteString);
 
-      byte[] bytes = java.nio.file.Files.readAllBytes(path);
-      String source = new String(bytes, java.nio.charset.Charset.defaultCharset());
+      ForkJoinTask<List<Stmt>> task = precompiled.replace(absoluteString, TAKEN);
+      List<Stmt> stmts = task == null || task == TAKEN ? null : task.join();
+
+      if (stmts == null) {
+        byte[] bytes = java.nio.file.Files.readAllBytes(path);
+        stmts = compileModule(new String(bytes, StandardCharsets.UTF_8));
+        precompileImports(stmts);
+      }
 
-      LoxModule module = executeAsModule(source);
+      LoxModule module = executeAsModule(stmts, absoluteString);
 
       moduleCache.put(absoluteString, module);
       loadingModules.remove(absoluteString);
@@ -1200,6 +1702,39 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 
+  /**
+   * Starts compiling the modules these statements import by a literal path, and the ones those
+   * import, on the common fork-join pool. Nothing runs there: a module still executes when its
+   * `using` is reached, one at a time and in order, taking the compiled tree (or compiling it
+   * itself if no tree is ready or compiling it found errors).
+   */
+  public void precompileImports(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Using using && using.source instanceof Expr.Literal literal
+              && (literal.value instanceof String || literal.value instanceof LoxString)) {
+        try {
+          String path = Path.of(resolveImportPath(literal.value.toString())).toAbsolutePath().normalize().toString();
+          precompiled.computeIfAbsent(path, key -> ForkJoinTask.adapt(() -> precompile(key)).fork());
+        } catch (java.nio.file.InvalidPathException ignored) {
+          // the import reports it
+        }
+      }
+    }
+  }
+
+  // runs on a pool thread; the resolver and optimizer only write to the nodes they're given
+  private List<Stmt> precompile(String path) {
+    try {
+      String source = new String(java.nio.file.Files.readAllBytes(Path.of(path)), StandardCharsets.UTF_8);
+      List<Stmt> stmts = Lox.compileQuietly(() -> compileModule(source));
+
+      if (stmts != null) precompileImports(stmts);
+      return stmts;
+    } catch (java.io.IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
   private String resolveImportPath(String importPath) {
     if (importPath.endsWith(".lox") || importPath.endsWith(".loxlib")) return importPath;
 
@@ -1218,14 +1753,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return importPath;
   }
 
-  private LoxModule executeAsModule(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
+  private List<Stmt> compileModule(String source) {
+    Parser parser = new Parser(new Scanner(source));
     List<Stmt> stmts = parser.parse();
 
     Resolver resolver = new Resolver(this);
     resolver.resolve(stmts);
+    return new Optimizer(this, Lox.optimizationLevel).optimize(stmts);
+  }
+
+  private LoxModule executeAsModule(List<Stmt> stmts, String name) {
+    if (Lox.astStats) System.err.print(AstStats.of(stmts).report(name));
 
     Interpreter moduleInterpreter = new Interpreter();
     moduleInterpreter.interpret(stmts);
@@ -1264,21 +1802,91 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitForStmt(Stmt.For stmt) {
-    if (stmt.initializer != null) {
-      execute(stmt.initializer);
+    // the Resolver gives the loop its own scope: the counter, then whatever the body declares
+    Environment previous = environment;
+    Environment loop = new Environment(environment);
+    LoopFrame enclosingFrame = loopFrame;
+
+    try {
+      environment = loop;
+      if (stmt.hoisted > 0) loopFrame = new LoopFrame(stmt.hoisted, enclosingFrame);
+
+      if (stmt.initializer != null) {
+        execute(stmt.initializer);
+      }
+
+      int declared = loop.slots.size();
+
+      if (stmt.countedOperator != null && loop.slots.getFirst() instanceof Double start) {
+        countedLoop(stmt, loop, declared, start);
+        return null;
+      }
+
+      while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+        for (Stmt statement : stmt.body) {
+          execute(statement);
+        }
+
+        loop = nextIteration(loop, declared, stmt.closures);
+        environment = loop;
+
+        if (stmt.increment != null) {
+          evaluate(stmt.increment);
+        }
+      }
+    } finally {
+      environment = previous;
+      loopFrame = enclosingFrame;
     }
 
-    while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+    return null;
+  }
+
+  private void countedLoop(Stmt.For stmt, Environment loop, int declared, double start) {
+    Token counter = ((Stmt.Var) stmt.initializer).name;
+
+    for (double i = start; ; ) {
+      Object limit = getValue(evaluate(stmt.countedLimit));
+      if (!(limit instanceof Double bound)) {
+        checkNumberOperands(stmt.countedOperator, i, limit);
+        return;
+      }
+
+      boolean running = switch (stmt.countedOperator.type) {
+        case LESS -> i < bound;
+        case LESS_EQUAL -> i <= bound;
+        case GREATER -> i > bound;
+        default -> i >= bound;
+      };
+
+      if (!running) return;
+
       for (Stmt statement : stmt.body) {
         execute(statement);
       }
 
-      if (stmt.increment != null) {
-        evaluate(stmt.increment);
-      }
+      loop = nextIteration(loop, declared, stmt.closures);
+      environment = loop;
+
+      i += stmt.countedStep;
+      loop.assignAt(0, counter, 0, i);
     }
+  }
 
-    return null;
+  /**
+   * Readies a loop scope for the next iteration, whose body declares its variables again. Closures
+   * made in the body keep the scope they saw, so only then does the next iteration get a copy.
+   */
+  private static Environment nextIteration(Environment loop, int declared, boolean closures) {
+    if (!closures) {
+      while (loop.slots.size() > declared) loop.slots.removeLast();
+      return loop;
+    }
+
+    Environment next = new Environment(loop.enclosing);
+    next.slots.addAll(loop.slots.subList(0, declared));
+    next.values.putAll(loop.values);
+    return next;
   }
 
   @Override
@@ -1302,6 +1910,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitNewExpr(Expr.New expr) {
     Object callee = evaluate(expr.constructor.callee);
 
+    if (callee instanceof LoxNativeClass nativeClass) {
+      List<Object> arguments = new ArrayList<>();
+      for (Expr argument : expr.constructor.arguments) {
+        arguments.add(getValue(evaluate(argument)));
+      }
+
+      try {
+        return nativeClass.call(this, arguments, true);
+      } catch (RuntimeError error) {
+        if (error.token == null) error.token = expr.keyword;
+        throw error;
+      }
+    }
+
     if (!(callee instanceof LoxClass klass)) {
       throw new RuntimeError(expr.keyword, "RuntimeError", "Can only use 'new' with classes.", null);
     }
@@ -1341,6 +1963,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       Throwable cause = e.getCause();
 
       if (cause instanceof RuntimeError runtimeError) {
+        // natives failing on another thread don't know where they were awaited
+        if (runtimeError.token == null) runtimeError.token = expr.keyword;
         throw runtimeError;
       }
 
@@ -1489,7 +2113,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     for (Expr.ObjectPattern.Property property : pattern.properties) {
       try {
-        Object propertyValue = instance.get(property.name().lexeme);
+        Object propertyValue = instance.get(new LoxString(property.name().lexeme));
         if (!matchPattern(propertyValue, property.pattern(), env)) {
           return false;
         }
@@ -1500,7 +2124,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     if (pattern.rest != null) {
       if (pattern.rest instanceof Expr.Variable) {
-        env.define(((Expr.Variable) pattern.rest).name.lexeme, new HashMap<>());
+        LoxDict rest = new LoxDict(instance);
+
+        for (Expr.ObjectPattern.Property property : pattern.properties) {
+          rest.remove(new LoxString(property.name().lexeme));
+        }
+
+        env.define(((Expr.Variable) pattern.rest).name.lexeme, rest);
       } else {
         return false;
       }
@@ -1532,7 +2162,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       return dictionary.values();
     }
 
-    throw new RuntimeError(expr.operator, "RuntimeError", "Only arrays and objects can be spread.", null);
+    if (value instanceof Iterable<?> elements) {
+      List<Object> list = new ArrayList<>();
+      elements.forEach(list::add);
+      return list;
+    }
+
+    throw new RuntimeError(expr.operator, "RuntimeError", "Only arrays, collections and objects can be spread.", null);
   }
 
   @Override
@@ -1541,6 +2177,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     return new LoxLazy(() -> {
       Environment previous = environment;
+      countUserCall();
 
       try {
         this.environment = new Environment(closure);
@@ -1583,12 +2220,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         case "LoxInstance" -> "Instance";
         case "LoxTrait" -> "Trait";
         case "LoxEnum" -> "Enum";
-        case "HashMap" -> "Dict";
-        case "LoxFunction", "Lambda" -> "Function";
+        case "LoxDict", "HashMap" -> "Dict";
+        case "LoxFunction", "BoundMethod", "Lambda" -> "Function";
         case "LoxArray" -> "Array";
         case "LoxCallable" -> "Callable";
         case "LoxLazy" -> "Lazy";
         case "LoxNamespace" -> "Namespace";
+        case "LoxSet" -> "Set";
+        case "LoxDeque" -> "Deque";
+        case "LoxPriorityQueue" -> "PriorityQueue";
+        case "LoxFloat64Array" -> "Float64Array";
+        case "LoxTable" -> "Table";
+        case "LoxStringBuilder" -> "StringBuilder";
+        case "LoxBytes" -> "Bytes";
+        case "LoxRange" -> "Range";
+        case "Row" -> "Row";
 
         default -> null;
       };
@@ -1601,7 +2247,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitDictionaryExpr(Expr.Dictionary expr) {
-    Map<LoxString, Object> dict = new HashMap<>();
+    LoxDict dict = new LoxDict(expr.keyValues.size());
     environment = new Environment(environment);
 
     for (Map.Entry<Token, Expr> entry : expr.keyValues.entrySet()) {
@@ -1609,7 +2255,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = evaluate(spread.right);
         if (value instanceof Map<?, ?> dictionary) {
           for (Map.Entry<?, ?> spreadDictEntry : dictionary.entrySet()) {
-            dict.put(new LoxString(spreadDictEntry.getKey().toString()), spreadDictEntry.getValue());
+            dict.put(dictKey(spreadDictEntry.getKey()), spreadDictEntry.getValue());
           }
         } else {
           throw new RuntimeError(entry.getKey(), "RuntimeError", "Only dictionaries can be spread inside other dictionaries.", null);
@@ -1617,7 +2263,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       } else {
         Object value = evaluate(entry.getValue());
         environment.define(entry.getKey().lexeme, value);
-        dict.put(new LoxString(entry.getKey().lexeme), value);
+        dict.put(new LoxString((String) entry.getKey().literal()), value);
       }
     }
 
@@ -1654,21 +2300,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     Object index = getValue(evaluate(expr.index));
 
     if (indexee instanceof Map<?, ?> dict) {
-      String searchKey = (index instanceof LoxString loxStr) ? loxStr.value : index.toString();
-      searchKey = searchKey.replace("\"", "");
-
-      for (Map.Entry<?, ?> entry : dict.entrySet()) {
-        Object mapKey = entry.getKey();
-
-        String currentKey = (mapKey instanceof LoxString lStr) ? lStr.value : mapKey.toString();
-        currentKey = currentKey.replace("\"", "");
-
-        if (searchKey.equals(currentKey)) {
-          return entry.getValue();
-        }
-      }
-
-      return null;
+      return dict.get(dictKey(index));
     }
 
     LoxTrait indexableTrait = (LoxTrait) environment.get("Indexable");
@@ -1678,7 +2310,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
 
       if (instance.klass.methods.containsKey("get")) {
-        return instance.klass.methods.get("get").bind(instance).call(this, List.of(index), false);
+        return instance.klass.methods.get("get").invoke(this, instance, List.of(index));
       }
     }
 
@@ -1698,10 +2330,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     switch (indexee) {
       case Map<?, ?> dictionary -> {
-        String keyStr = (index instanceof LoxString loxStr) ? loxStr.value : index.toString();
-
-        Map<String, Object> dict = (Map<String, Object>) dictionary;
-        dict.put(keyStr, value);
+        Map<LoxString, Object> dict = (Map<LoxString, Object>) dictionary;
+        dict.put(dictKey(index), value);
         return value;
       }
       case LoxIndexable indexable -> {
@@ -1716,7 +2346,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         if (instance.klass.methods.containsKey("set")) {
-          return instance.klass.methods.get("set").bind(instance).call(this, List.of(index, value), false);
+          return instance.klass.methods.get("set").invoke(this, instance, List.of(index, value));
         }
       }
       case null, default -> throw new RuntimeError(expr.bracket, "RuntimeError", "Variable is not indexable.", null);
@@ -1728,10 +2358,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
-    LocalLocation loc = locals.get(expr);
 
-    if (loc != null) {
-      environment.assignAt(loc.depth, expr.name, loc.index, value);
+    if (expr.depth >= 0) {
+      environment.assignAt(expr.depth, expr.name, expr.index, value);
     } else {
       globals.assign(expr.name, value);
     }
@@ -1772,7 +2401,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           }
 
           if (instance.klass.methods.containsKey(operatorMethod)) {
-            return instance.klass.methods.get(operatorMethod).bind(instance).call(this, Collections.singletonList(right), false);
+            return instance.klass.methods.get(operatorMethod).invoke(this, instance, Collections.singletonList(right));
           }
         }
       }
@@ -1784,7 +2413,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           }
 
           if (instance.klass.methods.containsKey(operatorMethod)) {
-            return instance.klass.methods.get(operatorMethod).bind(instance).call(this, Collections.singletonList(right), false);
+            return instance.klass.methods.get(operatorMethod).invoke(this, instance, Collections.singletonList(right));
           }
         }
       }
@@ -1853,13 +2482,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           throw new RuntimeError(expr.operator, "RuntimeError", "Range bounds must be numbers.", null);
         }
 
-        LoxClass rangeClass = (LoxClass) environment.get("Range");
-        return rangeClass.call(this, List.of(left, right), false);
+        return new LoxRange((double) left, (double) right);
       case null, default: return null;
     }
   }
 
   private boolean loxIsInstance(Object left, LoxClass klass) {
+    if (left instanceof LoxRange) {
+      return klass.name.equals("Range");
+    }
+
     if (left instanceof LoxInstance instance) {
       LoxClass kls = instance.klass;
 
@@ -1906,9 +2538,31 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitCallExpr(Expr.Call expr) {
-    Object callee = getValue(evaluate(expr.callee));
+    Object callee;
+
+    // obj.method(...) calls the method with obj as self, without binding it first
+    if (expr.callee instanceof Expr.Get get) {
+      Object object = getValue(evaluate(get.object));
+
+      if (object instanceof LoxInstance instance) {
+        LoxFunction method = method(instance, get);
+        if (method != null) return invoke(method, instance, expr);
+      }
+
+      callee = getValue(getProperty(object, get));
+    } else {
+      callee = getValue(evaluate(expr.callee));
+    }
 
     switch (callee) {
+      case LoxFunction function -> {
+        return invoke(function, null, expr);
+      }
+
+      case BoundMethod bound -> {
+        return invoke(bound.method(), bound.self(), expr);
+      }
+
       case LoxCallable function -> {
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
@@ -1919,11 +2573,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           return loxUnionConstructor.call(this, arguments, false);
         }
 
-        if (function instanceof LoxFunction fn) {
-          arguments = fillDefaultArguments(fn, arguments, expr.paren);
+        try {
+          return function.call(this, arguments, false);
+        } catch (RuntimeError error) {
+          // natives don't know where they were called from
+          if (error.token == null) error.token = expr.paren;
+          throw error;
         }
-
-        return function.call(this, arguments, false);
       }
 
       case LoxTrait trait -> throw new RuntimeError(trait.name(), "RuntimeError", "Traits cannot be constructed nor instantiated.", null);
@@ -1932,38 +2588,71 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 
+  private Object invoke(LoxFunction function, Object self, Expr.Call expr) {
+    List<Object> arguments = new ArrayList<>();
+    for (Expr argument : expr.arguments) {
+      arguments.add(getValue(evaluate(argument)));
+    }
+
+    arguments = fillDefaultArguments(function, arguments, expr.paren);
+
+    try {
+      return function.invoke(this, self, arguments);
+    } catch (RuntimeError error) {
+      if (error.token == null) error.token = expr.paren;
+      throw error;
+    }
+  }
+
+  // the method `expr` names on the instance, or null when it names a field or nothing
+  private LoxFunction method(LoxInstance instance, Expr.Get expr) {
+    if (expr.cachedClass == instance.klass) return expr.cachedMethod;
+    if (instance.klass.fieldLayout.containsKey(expr.name.lexeme)) return null;
+
+    LoxFunction method = instance.klass.findMethod(expr.name.lexeme);
+    if (method != null) {
+      expr.cachedClass = instance.klass;
+      expr.cachedMethod = method;
+    }
+
+    return method;
+  }
+
   @Override
   public Object visitGetExpr(Expr.Get expr) {
-    Object object = getValue(evaluate(expr.object));
+    return getProperty(getValue(evaluate(expr.object)), expr);
+  }
 
+  private Object getProperty(Object object, Expr.Get expr) {
     if (object instanceof LoxInstance instance) {
       if (expr.cachedClass == instance.klass) {
-        if (expr.isMethod) {
-          return instance.klass.methods.get(expr.name.lexeme).bind(instance);
+        if (expr.cachedMethod != null) {
+          return expr.cachedMethod.bind(instance);
         }
         return instance.fields[expr.cachedPropertyIndex];
       }
 
+      // a field cached for a superclass sits at the same slot in its subclasses
+      if (expr.cachedClass != null && expr.cachedMethod == null && instance.klass.sharesSlot(expr.cachedClass, expr.cachedPropertyIndex)) {
+        return instance.fields[expr.cachedPropertyIndex];
+      }
+
       Integer index = instance.klass.fieldLayout.get(expr.name.lexeme);
       if (index != null) {
         expr.cachedClass = instance.klass;
         expr.cachedPropertyIndex = index;
-        expr.isMethod = false;
+        expr.cachedMethod = null;
         return instance.fields[index];
       }
 
-      LoxFunction method = instance.klass.findMethod(expr.name.lexeme);
-      if (method != null) {
-        expr.cachedClass = instance.klass;
-        expr.isMethod = true;
-        return method.bind(instance);
-      }
+      LoxFunction method = method(instance, expr);
+      if (method != null) return method.bind(instance);
 
       return instance.get(expr.name);
     }
 
     if (object instanceof LoxArray array) {
-      if (expr.name.literal instanceof Double index) {
+      if (expr.name.literal() instanceof Double index) {
         int idx = (int) Math.floor(index);
 
         try {
@@ -1977,7 +2666,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     if (object instanceof Map<?, ?> dict) {
-      return dict.get(expr.name.lexeme);
+      if (expr.dictKey == null) {
+        expr.dictKey = new LoxString(expr.name.lexeme);
+      }
+
+      return dict.get(expr.dictKey);
     }
 
     if (object instanceof LoxEnum loxEnum) {
@@ -2016,6 +2709,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       return new LoxString(str).getMethod(expr.name);
     }
 
+    if (object instanceof LoxNativeObject nativeObject) {
+      return nativeObject.get(expr.name);
+    }
+
     throw new RuntimeError(
             expr.name,
             "RuntimeError",
@@ -2065,15 +2762,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     Object value = evaluate(expr.value);
 
-    if (expr.cachedClass == instance.klass && expr.cachedPropertyIndex != -1) {
+    if (expr.cachedPropertyIndex != -1 && (expr.cachedClass == instance.klass
+            || instance.klass.sharesSlot(expr.cachedClass, expr.cachedPropertyIndex))) {
       instance.fields[expr.cachedPropertyIndex] = value;
       return value;
     }
 
     instance.set(expr.name, value);
 
+    // slots laid out up front exist in every instance, others only once the shape is locked
     Integer index = instance.klass.fieldLayout.get(expr.name.lexeme);
-    if (index != null && instance.klass.isShapeLocked) {
+    if (index != null && (instance.klass.isShapeLocked || index < instance.klass.declaredFields)) {
       expr.cachedClass = instance.klass;
       expr.cachedPropertyIndex = index;
     }
@@ -2083,9 +2782,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    LocalLocation loc = locals.get(expr);
-    LoxClass superclass = (LoxClass) environment.getAt(loc.depth, loc.index);
-    LoxInstance object = (LoxInstance) environment.getAt(loc.depth - 1, 0);
+    LoxClass superclass = (LoxClass) environment.getAt(expr.depth, expr.index);
+    LoxInstance object = (LoxInstance) environment.getAt(expr.depth - 1, 0);
     LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
     if (method == null) {
@@ -2097,7 +2795,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return lookUpVariable(expr.keyword, expr.depth, expr.index);
   }
 
   @Override
@@ -2112,11 +2810,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     if (expr.operator.type == TokenType.MINUS_MINUS || expr.operator.type == TokenType.PLUS_PLUS) {
-      if (expr.right instanceof Expr.Variable) {
-        Token var = ((Expr.Variable) expr.right).name;
+      if (expr.right instanceof Expr.Variable variable) {
         checkNumberOperand(expr.operator, right);
         double newValue = (double) right + (expr.operator.type == TokenType.MINUS_MINUS ? -1 : 1);
-        environment.assign(var, newValue);
+
+        if (variable.depth >= 0) {
+          environment.assignAt(variable.depth, variable.name, variable.index, newValue);
+        } else {
+          globals.assign(variable.name, newValue);
+        }
+
         return newValue;
       } else if (expr.right instanceof Expr.Literal) {
         checkNumberOperand(expr.operator, right);
@@ -2131,7 +2834,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    Object value = lookUpVariable(expr.name, expr);
+    Object value = lookUpVariable(expr.name, expr.depth, expr.index);
     if (value == uninitialized) {
       throw new RuntimeError(expr.name, "RuntimeError", "Variable must be initialized before use.", null);
     }
@@ -2139,10 +2842,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return value;
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    LocalLocation loc = locals.get(expr);
-    if (loc != null) {
-      return environment.getAt(loc.depth, loc.index);
+  private Object lookUpVariable(Token name, int depth, int index) {
+    if (depth >= 0) {
+      return environment.getAt(depth, index);
     } else {
       return globals.get(name);
     }
@@ -2205,7 +2907,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             sb.append(", ");
           }
           first = false;
-          sb.append(entry.getKey().toString())
+          sb.append('"').append(entry.getKey().toString()).append('"')
                   .append(": ")
                   .append(stringify(entry.getValue()));
         }
@@ -2218,6 +2920,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     };
   }
 
+  /**
+   * std.Collections.Map and Set keep their keys' types (1 and "1" are different keys), only Java strings
+   * are normalized so they hash like the LoxStrings they stand for.
+   */
+  public static Object mapKey(Object key) {
+    return key instanceof String str ? new LoxString(str) : key;
+  }
+
+  /**
+   * Dictionaries are always keyed by LoxString, whatever the key was written as.
+   */
+  public static LoxString dictKey(Object key) {
+    return key instanceof LoxString loxStr ? loxStr : new LoxString(key instanceof String str ? str : stringify(key));
+  }
+
+  /**
+   * Strings can be appended to in place, so a table stores its own copy of a string key and hands
+   * out copies of it, or changing the string would leave it under the wrong hash.
+   */
+  public static Object copyKey(Object key) {
+    return key instanceof LoxString loxStr ? new LoxString(loxStr.value) : key;
+  }
+
   private Object getValue(Object obj) {
     if (obj instanceof LoxLazy lazy) {
       return lazy.get();
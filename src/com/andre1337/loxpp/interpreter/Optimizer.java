@@ -2,111 +2,288 @@ package com.andre1337.loxpp.interpreter;
 
 import com.andre1337.loxpp.ast.Expr;
 import com.andre1337.loxpp.ast.Stmt;
+import com.andre1337.loxpp.lexer.TokenType;
 
 import java.util.*;
 
+/**
+ * Rewrites the resolved AST before it runs. Level 1 folds constant expressions, drops branches
+ * and loops whose condition is a constant, and optimizes loops: invariant expressions are computed
+ * once per run of the loop, and counted `for` loops keep their counter in Java. Level 2 also
+ * inlines small top-level functions that just return an expression.
+ * <p>
+ * It runs after the Resolver, so it never changes scopes or the order of declarations (slots are
+ * handed out in definition order), and a rebuilt variable or assignment node takes over the
+ * resolution of the one it replaces. Folding follows the interpreter's own rules, and anything it
+ * cannot prove is left exactly as written.
+ */
 public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
-    private final Map<String, Stmt.Function> functionTable = new HashMap<>();
-    private final Map<String, Expr> expressionCache = new HashMap<>();
+    public static final int DEFAULT_LEVEL = 2;
 
-    public List<Stmt> optimize(List<Stmt> stmts) {
-        List<Stmt> optimized = new ArrayList<>();
+    private static final int INLINE_MAX_NODES = 24;
+    private static final int INLINE_MAX_DEPTH = 4;
 
-        for (Stmt stmt : stmts) {
-            Stmt optStmt = stmt.accept(this);
+    private record Inlinable(Stmt.Function function, Expr body, int declaredAt) {}
 
-            if (optStmt != null) {
-                optimized.add(optStmt);
+    private final Interpreter interpreter;
+    private final int level;
+
+    private final Map<String, Inlinable> inlinable = new HashMap<>();
+    private final Map<String, Integer> topLevelDeclarations = new HashMap<>();
+    private final Deque<String> inlining = new ArrayDeque<>();
+    private boolean inlineCalls = false;
+    private int topLevelIndex = 0;
+
+    private Set<String> writtenInFunctions = Set.of();
+    private boolean optimizeLoops = false;
+    private Region region = null;
+
+    public Optimizer(Interpreter interpreter, int level) {
+        this.interpreter = interpreter;
+        this.level = level;
+    }
+
+    public List<Stmt> optimize(List<Stmt> statements) {
+        if (level <= 0) return statements;
+
+        Effects program = new Effects();
+        program.statements(statements);
+        writtenInFunctions = program.writtenInFunctions;
+
+        List<Stmt> optimized = topLevel(statements, true);
+
+        if (level >= 2) {
+            inlinable.keySet().removeIf(name -> program.assigned.contains(name) || topLevelDeclarations.get(name) != 1);
+
+            if (!inlinable.isEmpty()) {
+                inlineCalls = true;
+                optimized = topLevel(optimized, false);
             }
         }
 
+        // loops go last, once the code inside them is in its final shape
+        optimizeLoops = true;
+        return topLevel(optimized, false);
+    }
+
+    private List<Stmt> topLevel(List<Stmt> statements, boolean collect) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+
+        for (topLevelIndex = 0; topLevelIndex < statements.size(); topLevelIndex++) {
+            Stmt stmt = optimize(statements.get(topLevelIndex));
+            if (stmt == null) continue;
+
+            if (collect) declare(stmt);
+            optimized.add(stmt);
+        }
+
         return optimized;
     }
 
+    private void declare(Stmt stmt) {
+        List<String> names = switch (stmt) {
+            case Stmt.Function function -> {
+                Expr body = inlineBody(function);
+                if (body != null) inlinable.put(function.name.lexeme, new Inlinable(function, body, topLevelIndex));
+                yield List.of(function.name.lexeme);
+            }
+
+            case Stmt.Var var -> List.of(var.name.lexeme);
+            case Stmt.Class klass -> List.of(klass.name.lexeme);
+            case Stmt.Trait trait -> List.of(trait.name.lexeme);
+            case Stmt.Enum enumStmt -> List.of(enumStmt.name.lexeme);
+            case Stmt.Namespace namespace -> List.of(namespace.name.lexeme);
+            case Stmt.ObjectDestructuring destructuring -> destructuring.bindings.stream().map(token -> token.lexeme).toList();
+            case Stmt.ArrayDestructuring destructuring -> destructuring.bindings.stream().map(token -> token.lexeme).toList();
+            case Stmt.Using using -> using.names.stream().map(variable -> variable.name.lexeme).toList();
+            default -> List.of();
+        };
+
+        for (String name : names) topLevelDeclarations.merge(name, 1, Integer::sum);
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        if (expr == null) return null;
+
+        if (region != null && isWorthHoisting(expr) && isInvariant(expr, region.effects, false)) {
+            // values depending only on locals nothing else can assign stay valid whatever code runs
+            boolean readsHeap = !isInvariant(expr, region.effects, true);
+            return new Expr.Hoisted(expr, region.hoisted++, readsHeap);
+        }
+
+        return expr.accept(this);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        if (statements == null) return null;
+
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        boolean changed = false;
+
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            changed |= result != statement;
+
+            if (result != null) optimized.add(result);
+        }
+
+        return changed ? optimized : statements;
+    }
+
+    private List<Expr> optimizeExprs(List<Expr> exprs) {
+        List<Expr> optimized = new ArrayList<>(exprs.size());
+        boolean changed = false;
+
+        for (Expr expr : exprs) {
+            Expr result = optimize(expr);
+            changed |= result != expr;
+            optimized.add(result);
+        }
+
+        return changed ? optimized : exprs;
+    }
+
+    private List<Stmt.Function> optimizeFunctions(List<Stmt.Function> functions) {
+        if (functions == null) return null;
+
+        List<Stmt.Function> optimized = new ArrayList<>(functions.size());
+        boolean changed = false;
+
+        for (Stmt.Function function : functions) {
+            Stmt.Function result = (Stmt.Function) optimize(function);
+            changed |= result != function;
+            optimized.add(result);
+        }
+
+        return changed ? optimized : functions;
+    }
+
+    /**
+     * Where a single statement is expected, a removed one becomes an empty block.
+     */
+    private Stmt optimizeBranch(Stmt stmt) {
+        if (stmt == null) return null;
+
+        Stmt result = optimize(stmt);
+        return result == null ? new Stmt.Block(List.of()) : result;
+    }
+
+    // constants
+
+    private static boolean isConstant(Expr expr) {
+        return expr instanceof Expr.Literal literal
+                && (literal.value == null || literal.value instanceof Double || literal.value instanceof Boolean || literal.value instanceof String);
+    }
+
+    private static Object constant(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    private static boolean isTruthy(Object value) {
+        return value != null && (!(value instanceof Boolean bool) || bool);
+    }
+
+    private static String text(Object value) {
+        return value instanceof String string ? string : Interpreter.stringify(value);
+    }
+
+    /**
+     * The result of a binary operator on two constants, or null when the interpreter would do
+     * something else with them (raise an error, or run an operator we don't fold).
+     */
+    private static Expr.Literal fold(TokenType operator, Object left, Object right) {
+        if (left instanceof Double l && right instanceof Double r) {
+            Object value = switch (operator) {
+                case PLUS -> l + r;
+                case MINUS -> l - r;
+                case STAR -> l * r;
+                case SLASH -> l / r;
+                case PERCENT -> l % r;
+                case EXPONENTIATION -> Math.pow(l, r);
+                case GREATER -> l > r;
+                case GREATER_EQUAL -> l >= r;
+                case LESS -> l < r;
+                case LESS_EQUAL -> l <= r;
+                default -> null;
+            };
+
+            if (value != null) return new Expr.Literal(value);
+        }
+
+        return switch (operator) {
+            case EQUAL_EQUAL -> new Expr.Literal(Objects.equals(left, right));
+            case BANG_EQUAL -> new Expr.Literal(!Objects.equals(left, right));
+
+            case PLUS -> left instanceof String || right instanceof String
+                    ? new Expr.Literal(text(left) + text(right))
+                    : null;
+
+            default -> null;
+        };
+    }
 
     @Override
     public Expr visitAssignExpr(Expr.Assign expr) {
-        return expr;
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        interpreter.inheritResolution(expr, assign);
+        return assign;
     }
 
     @Override
     public Expr visitBinaryExpr(Expr.Binary expr) {
-        Expr left = expr.left.accept(this);
-        Expr right = expr.right.accept(this);
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
 
-        String key = left.toString() + expr.operator.type + right.toString();
-
-        if (left instanceof Expr.Literal leftLit && right instanceof Expr.Literal rightLit) {
-            Object leftValue = leftLit.value;
-            Object rightValue = rightLit.value;
-
-            if (expressionCache.containsKey(key)) {
-                return expressionCache.get(key);
-            }
-
-            if (leftValue instanceof Double l && rightValue instanceof Double r) {
-                switch (expr.operator.type) {
-                    case PLUS: {
-                        Expr optExpr = new Expr.Literal(l + r);
-                        expressionCache.put(key, optExpr);
-                        return optExpr;
-                    }
-                    case MINUS: {
-                        Expr optExpr = new Expr.Literal(l - r);
-                        expressionCache.put(key, optExpr);
-                        return optExpr;
-                    }
-                    case STAR: {
-                        Expr optExpr = new Expr.Literal(l * r);
-                        expressionCache.put(key, optExpr);
-                        return optExpr;
-                    }
-                    case SLASH: {
-                        Expr optExpr = new Expr.Literal(r != 0 ? l / r : Double.NaN);
-                        expressionCache.put(key, optExpr);
-                        return optExpr;
-                    }
+        if (expr.operator.type == TokenType.QUESTION_QUESTION && isConstant(left)) {
+            return constant(left) != null ? left : right;
+        }
 
-                    default: {
-                        expressionCache.put(key, expr);
-                        return expr;
-                    }
-                }
-            }
+        if (isConstant(left) && isConstant(right)) {
+            Expr.Literal folded = fold(expr.operator.type, constant(left), constant(right));
+            if (folded != null) return folded;
         }
 
-        Expr result = new Expr.Binary(left, expr.operator, right);
-        expressionCache.put(key, result);
-        return result;
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
     }
 
     @Override
     public Expr visitCallExpr(Expr.Call expr) {
-        Expr callee = expr.callee.accept(this);
-        Expr instance = expr.instance != null ? expr.instance.accept(this) : null;
-        List<Expr> args = new ArrayList<>();
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeExprs(expr.arguments);
+        Expr instance = optimize(expr.instance);
+
+        Expr call = callee == expr.callee && arguments == expr.arguments && instance == expr.instance
+                ? expr
+                : new Expr.Call(callee, expr.paren, arguments, instance);
 
-        for (Expr arg : expr.arguments) {
-            args.add(arg.accept(this));
+        if (inlineCalls && call instanceof Expr.Call c) {
+            Expr inlined = inline(c);
+            if (inlined != null) return inlined;
         }
 
-        return new Expr.Call(callee, expr.paren, args, instance);
+        return call;
     }
 
     @Override
     public Expr visitGetExpr(Expr.Get expr) {
-        return expr;
+        Expr object = optimize(expr.object);
+        return object == expr.object ? expr : new Expr.Get(object, expr.name);
     }
 
     @Override
     public Expr visitGroupingExpr(Expr.Grouping expr) {
-        Expr opt = expr.expression.accept(this);
-
-        if (opt instanceof Expr.Literal || opt instanceof Expr.Variable) {
-            return opt;
-        }
+        Expr inner = optimize(expr.expression);
 
-        return new Expr.Grouping(opt);
+        if (isConstant(inner)) return inner;
+        return inner == expr.expression ? expr : new Expr.Grouping(inner);
     }
 
     @Override
@@ -116,12 +293,26 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Expr visitLogicalExpr(Expr.Logical expr) {
-        return expr;
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // `or` yields a truthy left operand, `and` a falsy one; otherwise the result is the right one
+        if (isConstant(left)) {
+            boolean shortCircuits = isTruthy(constant(left)) == (expr.operator.type == TokenType.LOGICAL_OR);
+            return shortCircuits ? left : right;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
     }
 
     @Override
     public Expr visitSetExpr(Expr.Set expr) {
-        return expr;
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
     }
 
     @Override
@@ -136,21 +327,18 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Expr visitUnaryExpr(Expr.Unary expr) {
-        Expr right = expr.right.accept(this);
+        Expr right = optimize(expr.right);
 
-        if (right instanceof Expr.Literal lit) {
-            switch (expr.operator.type) {
-                case BANG:
-                    if (lit.value instanceof Boolean bool) {
-                        return new Expr.Literal(!bool);
-                    }
-                    break;
-                case MINUS:
-                    if (lit.value instanceof Double dbl) {
-                        return new Expr.Literal(-dbl);
-                    }
-                    break;
-            }
+        if (isConstant(right)) {
+            Object value = constant(right);
+
+            if (expr.operator.type == TokenType.BANG) return new Expr.Literal(!isTruthy(value));
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double d) return new Expr.Literal(-d);
+        }
+
+        // ++ and -- look at the operand node itself, so it has to stay the one the Resolver saw
+        if (right == expr.right || expr.operator.type == TokenType.PLUS_PLUS || expr.operator.type == TokenType.MINUS_MINUS) {
+            return expr;
         }
 
         return new Expr.Unary(expr.operator, right);
@@ -163,27 +351,49 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Expr visitArrayExpr(Expr.Array expr) {
-        return expr;
+        List<Expr> elements = optimizeExprs(expr.elements);
+        return elements == expr.elements ? expr : new Expr.Array(expr.bracket, elements);
     }
 
     @Override
     public Expr visitArraySubscriptGetExpr(Expr.SubscriptGet expr) {
-        return expr;
+        Expr indexee = optimize(expr.indexee);
+        Expr index = optimize(expr.index);
+
+        if (indexee == expr.indexee && index == expr.index) return expr;
+        return new Expr.SubscriptGet(indexee, expr.bracket, index);
     }
 
     @Override
     public Expr visitArraySubscriptSetExpr(Expr.SubscriptSet expr) {
-        return expr;
+        Expr indexee = optimize(expr.indexee);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+
+        if (indexee == expr.indexee && index == expr.index && value == expr.value) return expr;
+        return new Expr.SubscriptSet(indexee, expr.bracket, index, value);
     }
 
     @Override
     public Expr visitLambdaExpr(Expr.Lambda expr) {
-        return expr;
+        if (region != null) return expr; // a closure can outlive the loop
+
+        List<Stmt> body = optimizeAll(expr.body);
+        return body == expr.body ? expr : new Expr.Lambda(expr.params, body, expr.isAsync);
     }
 
     @Override
     public Expr visitDictionaryExpr(Expr.Dictionary expr) {
-        return expr;
+        Map<com.andre1337.loxpp.lexer.Token, Expr> keyValues = new LinkedHashMap<>();
+        boolean changed = false;
+
+        for (Map.Entry<com.andre1337.loxpp.lexer.Token, Expr> entry : expr.keyValues.entrySet()) {
+            Expr value = optimize(entry.getValue());
+            changed |= value != entry.getValue();
+            keyValues.put(entry.getKey(), value);
+        }
+
+        return changed ? new Expr.Dictionary(expr.brace, keyValues) : expr;
     }
 
     @Override
@@ -193,7 +403,8 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Expr visitTupleLiteralExpr(Expr.TupleLiteral expr) {
-        return expr;
+        List<Expr> elements = optimizeExprs(expr.elements);
+        return elements == expr.elements ? expr : new Expr.TupleLiteral(elements, expr.token);
     }
 
     @Override
@@ -203,22 +414,22 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Expr visitSpreadExpr(Expr.Spread expr) {
-        return expr;
+        Expr right = optimize(expr.right);
+        return right == expr.right ? expr : new Expr.Spread(expr.operator, right);
     }
 
     @Override
     public Expr visitTernaryExpr(Expr.Ternary expr) {
-        Expr cond = expr.condition.accept(this);
-        Expr thenExpr = expr.thenBranch.accept(this);
-        Expr elseExpr = expr.elseBranch.accept(this);
+        Expr condition = optimize(expr.condition);
+        Expr thenBranch = optimize(expr.thenBranch);
+        Expr elseBranch = optimize(expr.elseBranch);
 
-        if (cond instanceof Expr.Literal lit) {
-            if (lit.value instanceof Boolean bool) {
-                return bool ? thenExpr : elseExpr;
-            }
+        if (isConstant(condition)) {
+            return isTruthy(constant(condition)) ? thenBranch : elseBranch;
         }
 
-        return new Expr.Ternary(cond, thenExpr, elseExpr);
+        if (condition == expr.condition && thenBranch == expr.thenBranch && elseBranch == expr.elseBranch) return expr;
+        return new Expr.Ternary(condition, thenBranch, elseBranch);
     }
 
     @Override
@@ -248,135 +459,748 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Expr visitAwaitExpr(Expr.Await expr) {
+        Expr value = optimize(expr.value);
+        return value == expr.value ? expr : new Expr.Await(expr.keyword, value);
+    }
+
+    @Override
+    public Expr visitHoistedExpr(Expr.Hoisted expr) {
         return expr;
     }
 
     @Override
     public Expr visitNewExpr(Expr.New expr) {
-        return null;
+        List<Expr> arguments = optimizeExprs(expr.constructor.arguments);
+        if (arguments == expr.constructor.arguments) return expr;
+
+        Expr.Call constructor = new Expr.Call(expr.constructor.callee, expr.constructor.paren, arguments, expr.constructor.instance);
+        return new Expr.New(expr.keyword, constructor);
     }
 
-    @Override
-    public Stmt visitBlockStmt(Stmt.Block stmt) {
-        List<Stmt> optimized = new ArrayList<>();
+    // inlining
+
+    /**
+     * The returned expression of a function that can be inlined: a plain top-level function whose
+     * whole body is `return expr;`, small and built only from operators, reads and calls.
+     */
+    private Expr inlineBody(Stmt.Function function) {
+        if (function.isAsync || function.isAbstract || function.body == null || function.body.size() != 1) return null;
+        if (!(function.body.getFirst() instanceof Stmt.Return ret) || ret.value == null) return null;
+
+        for (Stmt.Function.Param param : function.params) {
+            if (param.defaultValue() != null) return null;
+        }
+
+        int size = measure(ret.value, function.name.lexeme);
+        return size > 0 && size <= INLINE_MAX_NODES ? ret.value : null;
+    }
 
-        for (Stmt statement : stmt.statements) {
-            Stmt optStmt = statement.accept(this);
+    /**
+     * Node count of an inlinable expression, or -1 when it contains something that cannot move to
+     * another call site (closures, assignments, self-references, and so on).
+     */
+    private int measure(Expr expr, String self) {
+        return switch (expr) {
+            case Expr.Literal ignored -> 1;
+            case Expr.Variable variable -> variable.name.lexeme.equals(self) ? -1 : 1;
+            case Expr.Grouping grouping -> add(1, measure(grouping.expression, self));
 
-            if (optStmt != null) {
-                optimized.add(optStmt);
+            case Expr.Unary unary when unary.operator.type == TokenType.MINUS || unary.operator.type == TokenType.BANG ->
+                    add(1, measure(unary.right, self));
+
+            case Expr.Binary binary when binary.operator.type != TokenType.DOT_DOT ->
+                    add(1, add(measure(binary.left, self), measure(binary.right, self)));
+
+            case Expr.Logical logical -> add(1, add(measure(logical.left, self), measure(logical.right, self)));
+
+            case Expr.Ternary ternary ->
+                    add(1, add(measure(ternary.condition, self), add(measure(ternary.thenBranch, self), measure(ternary.elseBranch, self))));
+
+            case Expr.Get get -> add(1, measure(get.object, self));
+            case Expr.SubscriptGet get -> add(1, add(measure(get.indexee, self), measure(get.index, self)));
+
+            case Expr.Call call when call.instance == null -> {
+                int size = add(1, measure(call.callee, self));
+
+                for (Expr argument : call.arguments) {
+                    size = add(size, argument instanceof Expr.Spread ? -1 : measure(argument, self));
+                }
+
+                yield size;
             }
+
+            default -> -1;
+        };
+    }
+
+    private static int add(int a, int b) {
+        return a < 0 || b < 0 ? -1 : a + b;
+    }
+
+    /**
+     * Whether evaluating the expression could run Lox code (a call, or a property or index read
+     * that may go through a getter or a lazy value), which could observe the argument variables.
+     */
+    private static boolean runsCode(Expr expr) {
+        return switch (expr) {
+            case Expr.Call ignored -> true;
+            case Expr.Get ignored -> true;
+            case Expr.SubscriptGet ignored -> true;
+            case Expr.Grouping grouping -> runsCode(grouping.expression);
+            case Expr.Unary unary -> runsCode(unary.right);
+            case Expr.Binary binary -> runsCode(binary.left) || runsCode(binary.right);
+            case Expr.Logical logical -> runsCode(logical.left) || runsCode(logical.right);
+            case Expr.Ternary ternary -> runsCode(ternary.condition) || runsCode(ternary.thenBranch) || runsCode(ternary.elseBranch);
+            default -> false;
+        };
+    }
+
+    private Expr inline(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable callee) || call.instance != null) return null;
+        if (interpreter.isResolvedLocally(callee)) return null; // a local shadows the function here
+
+        Inlinable target = inlinable.get(callee.name.lexeme);
+        if (target == null || target.declaredAt >= topLevelIndex) return null;
+        if (inlining.contains(callee.name.lexeme) || inlining.size() >= INLINE_MAX_DEPTH) return null;
+
+        List<Stmt.Function.Param> params = target.function.params;
+        if (params.size() != call.arguments.size()) return null;
+
+        // arguments are substituted for the parameters, so they must be safe to evaluate in any
+        // order and any number of times: constants, or variables when nothing in between can run code
+        Map<String, Expr> arguments = new HashMap<>();
+        Map<String, Integer> uses = new HashMap<>();
+        boolean variables = false;
+
+        for (int i = 0; i < params.size(); i++) {
+            Expr argument = call.arguments.get(i);
+
+            if (argument instanceof Expr.Variable) {
+                variables = true;
+            } else if (!isConstant(argument)) {
+                return null;
+            }
+
+            arguments.put(params.get(i).name().lexeme, argument);
         }
 
-        if (optimized.isEmpty()) {
-            return null;
+        if (variables && runsCode(target.body)) return null;
+
+        Expr body = substitute(target.body, arguments, uses);
+
+        for (Map.Entry<String, Expr> argument : arguments.entrySet()) {
+            if (argument.getValue() instanceof Expr.Variable && !uses.containsKey(argument.getKey())) return null;
         }
 
-        if (optimized.size() == 1 && !(optimized.getFirst() instanceof Stmt.Block)) {
-            return optimized.getFirst();
+        inlining.push(callee.name.lexeme);
+
+        try {
+            return optimize(body);
+        } finally {
+            inlining.pop();
         }
+    }
+
+    /**
+     * Copies the body with parameters replaced by the arguments. Other variables are globals here
+     * (the function is top-level and has no locals besides its parameters), and global reads
+     * resolve by name, so those nodes are shared as they are.
+     */
+    private Expr substitute(Expr expr, Map<String, Expr> arguments, Map<String, Integer> uses) {
+        return switch (expr) {
+            case Expr.Variable variable when interpreter.isResolvedLocally(variable) -> {
+                uses.merge(variable.name.lexeme, 1, Integer::sum);
+                yield arguments.get(variable.name.lexeme);
+            }
+
+            case Expr.Grouping grouping -> new Expr.Grouping(substitute(grouping.expression, arguments, uses));
+            case Expr.Unary unary -> new Expr.Unary(unary.operator, substitute(unary.right, arguments, uses));
+
+            case Expr.Binary binary ->
+                    new Expr.Binary(substitute(binary.left, arguments, uses), binary.operator, substitute(binary.right, arguments, uses));
+
+            case Expr.Logical logical ->
+                    new Expr.Logical(substitute(logical.left, arguments, uses), logical.operator, substitute(logical.right, arguments, uses));
 
-        return new Stmt.Block(optimized);
+            case Expr.Ternary ternary -> new Expr.Ternary(
+                    substitute(ternary.condition, arguments, uses),
+                    substitute(ternary.thenBranch, arguments, uses),
+                    substitute(ternary.elseBranch, arguments, uses)
+            );
+
+            case Expr.Get get -> new Expr.Get(substitute(get.object, arguments, uses), get.name);
+
+            case Expr.SubscriptGet get ->
+                    new Expr.SubscriptGet(substitute(get.indexee, arguments, uses), get.bracket, substitute(get.index, arguments, uses));
+
+            case Expr.Call c -> {
+                List<Expr> args = new ArrayList<>(c.arguments.size());
+                for (Expr argument : c.arguments) args.add(substitute(argument, arguments, uses));
+
+                yield new Expr.Call(substitute(c.callee, arguments, uses), c.paren, args, null);
+            }
+
+            default -> expr;
+        };
     }
 
-    @Override
-    public Stmt visitClassStmt(Stmt.Class stmt) {
-        return stmt;
+    // loops
+
+    /**
+     * The loop whose invariant expressions are being hoisted, and how many it has so far.
+     */
+    private static final class Region {
+        final Effects effects;
+        int hoisted = 0;
+
+        Region(Effects effects) {
+            this.effects = effects;
+        }
     }
 
-    @Override
-    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
-        Expr opt = stmt.expression.accept(this);
+    private Region enter(Effects effects) {
+        region = new Region(effects);
+        return region;
+    }
 
-        if (opt instanceof Expr.Literal lit && lit.value == null) {
-            return null;
+    /**
+     * What a stretch of code may do to the values a loop reads: the names it assigns or declares,
+     * and whether it can run Lox code or write to objects (calls, property and index writes, ...).
+     */
+    private static final class Effects {
+        final Set<String> written = new HashSet<>();
+        final Set<String> writtenInFunctions = new HashSet<>();
+        // the names given a new value by = or ++/--, not by a declaration
+        final Set<String> assigned = new HashSet<>();
+        boolean runsCode = false;
+        private int functions = 0;
+
+        void write(String name) {
+            written.add(name);
+            if (functions > 0) writtenInFunctions.add(name);
         }
 
-        if (opt instanceof Expr.Call call) {
-            if (call.callee instanceof Expr.Variable var) {
-                String fnName = var.name.lexeme;
+        void function(List<Stmt.Function.Param> params, List<Stmt> body) {
+            functions++;
+            if (params != null) params.forEach(param -> expr(param.defaultValue()));
+            statements(body);
+            functions--;
+        }
+
+        void functions(List<Stmt.Function> methods) {
+            if (methods != null) methods.forEach(method -> function(method.params, method.body));
+        }
+
+        void statements(List<Stmt> statements) {
+            if (statements != null) statements.forEach(this::stmt);
+        }
 
-                if (functionTable.containsKey(fnName)) {
-                    return functionTable.get(fnName);
+        void stmt(Stmt stmt) {
+            switch (stmt) {
+                case null -> {}
+                case Stmt.Block block -> statements(block.statements);
+                case Stmt.Expression expression -> expr(expression.expression);
+                case Stmt.Return ret -> expr(ret.value);
+                case Stmt.Export ignored -> {}
+                case Stmt.Enum enumStmt -> write(enumStmt.name.lexeme);
+
+                case Stmt.Var var -> {
+                    write(var.name.lexeme);
+                    expr(var.initializer);
                 }
+
+                case Stmt.Function function -> {
+                    write(function.name.lexeme);
+                    function(function.params, function.body);
+                }
+
+                case Stmt.Class klass -> {
+                    write(klass.name.lexeme);
+                    functions(klass.methods);
+                    functions(klass.staticMethods);
+                }
+
+                case Stmt.Trait trait -> {
+                    write(trait.name.lexeme);
+                    functions(trait.methods);
+                }
+
+                case Stmt.Impl impl -> functions(impl.methods);
+
+                case Stmt.If ifStmt -> {
+                    expr(ifStmt.condition);
+                    stmt(ifStmt.thenBranch);
+                    stmt(ifStmt.elseBranch);
+                }
+
+                case Stmt.While whileStmt -> {
+                    expr(whileStmt.condition);
+                    stmt(whileStmt.body);
+                }
+
+                case Stmt.For forStmt -> {
+                    stmt(forStmt.initializer);
+                    expr(forStmt.condition);
+                    expr(forStmt.increment);
+                    statements(forStmt.body);
+                }
+
+                case Stmt.ForIn forIn -> {
+                    write(forIn.key.lexeme);
+                    if (forIn.value != null) write(forIn.value.lexeme);
+                    expr(forIn.iterable);
+                    statements(forIn.body);
+                }
+
+                case Stmt.TryCatch tryCatch -> {
+                    statements(tryCatch.tryBody);
+                    if (tryCatch.exception != null) write(tryCatch.exception.lexeme);
+                    statements(tryCatch.catchBody);
+                }
+
+                case Stmt.Namespace namespace -> {
+                    write(namespace.name.lexeme);
+                    statements(namespace.body);
+                }
+
+                case Stmt.ObjectDestructuring destructuring -> {
+                    destructuring.bindings.forEach(binding -> write(binding.lexeme));
+                    expr(destructuring.initializer);
+                }
+
+                case Stmt.ArrayDestructuring destructuring -> {
+                    destructuring.bindings.forEach(binding -> write(binding.lexeme));
+                    expr(destructuring.initializer);
+                }
+
+                case Stmt.Using using -> {
+                    runsCode = true; // loads a module
+                    using.names.forEach(name -> write(name.name.lexeme));
+                }
+
+                case Stmt.Throw thrown -> {
+                    runsCode = true; // calls message()
+                    expr(thrown.thrown);
+                }
+
+                default -> runsCode = true;
+            }
+        }
+
+        void expr(Expr expr) {
+            switch (expr) {
+                case null -> {}
+                case Expr.Literal ignored -> {}
+                case Expr.Variable ignored -> {}
+                case Expr.This ignored -> {}
+                case Expr.Super ignored -> {}
+                case Expr.Typeof ignored -> {}
+                case Expr.Grouping grouping -> expr(grouping.expression);
+                case Expr.Get get -> expr(get.object);
+                case Expr.Hoisted hoisted -> expr(hoisted.expression);
+                case Expr.Lambda lambda -> function(lambda.params, lambda.body); // making a closure doesn't run it
+
+                case Expr.Assign assign -> {
+                    write(assign.name.lexeme);
+                    assigned.add(assign.name.lexeme);
+                    expr(assign.value);
+                }
+
+                case Expr.Binary binary -> {
+                    expr(binary.left);
+                    expr(binary.right);
+                }
+
+                case Expr.Logical logical -> {
+                    expr(logical.left);
+                    expr(logical.right);
+                }
+
+                case Expr.Ternary ternary -> {
+                    expr(ternary.condition);
+                    expr(ternary.thenBranch);
+                    expr(ternary.elseBranch);
+                }
+
+                case Expr.Unary unary -> {
+                    if (unary.operator.type == TokenType.PLUS_PLUS || unary.operator.type == TokenType.MINUS_MINUS) {
+                        if (unary.right instanceof Expr.Variable variable) {
+                            write(variable.name.lexeme);
+                            assigned.add(variable.name.lexeme);
+                        } else {
+                            runsCode = true;
+                        }
+                    }
+
+                    expr(unary.right);
+                }
+
+                case Expr.SubscriptGet get -> {
+                    expr(get.indexee);
+                    expr(get.index);
+                }
+
+                case Expr.Array array -> array.elements.forEach(this::expr);
+                case Expr.TupleLiteral tuple -> tuple.elements.forEach(this::expr);
+                case Expr.Dictionary dictionary -> dictionary.keyValues.values().forEach(this::expr);
+
+                case Expr.Call call -> {
+                    if (!isLength(call)) runsCode = true;
+                    expr(call.callee);
+                    call.arguments.forEach(this::expr);
+                    expr(call.instance);
+                }
+
+                case Expr.New newExpr -> {
+                    runsCode = true;
+                    expr(newExpr.constructor.callee);
+                    newExpr.constructor.arguments.forEach(this::expr);
+                }
+
+                case Expr.Set set -> {
+                    runsCode = true;
+                    expr(set.object);
+                    expr(set.value);
+                }
+
+                case Expr.SubscriptSet set -> {
+                    runsCode = true;
+                    expr(set.indexee);
+                    expr(set.index);
+                    expr(set.value);
+                }
+
+                case Expr.Spread spread -> {
+                    runsCode = true;
+                    expr(spread.right);
+                }
+
+                case Expr.Await await -> {
+                    runsCode = true;
+                    expr(await.value);
+                }
+
+                case Expr.Lazy lazy -> {
+                    runsCode = true;
+                    functions++;
+                    expr(lazy.expr);
+                    statements(lazy.statements);
+                    functions--;
+                }
+
+                case Expr.Match match -> {
+                    runsCode = true;
+                    expr(match.value);
+
+                    for (Expr.MatchCase matchCase : match.cases) {
+                        pattern(matchCase.pattern());
+                        expr(matchCase.guard());
+                        statements(matchCase.body());
+                    }
+                }
+
+                default -> runsCode = true;
+            }
+        }
+
+        // patterns bind the variables they name
+        void pattern(Expr pattern) {
+            switch (pattern) {
+                case null -> {}
+                case Expr.Variable variable -> write(variable.name.lexeme);
+                case Expr.UnionPattern union -> union.bindings.forEach(binding -> write(binding.lexeme));
+
+                case Expr.ListPattern list -> {
+                    list.elements.forEach(this::pattern);
+                    pattern(list.rest);
+                }
+
+                case Expr.ObjectPattern object -> {
+                    for (Expr.ObjectPattern.Property property : object.properties) {
+                        write(property.name().lexeme);
+                        pattern(property.pattern());
+                    }
+
+                    pattern(object.rest);
+                }
+
+                default -> expr(pattern);
+            }
+        }
+    }
+
+    // x.len() on an array, string or native collection reads, and changes nothing
+    private static boolean isLength(Expr.Call call) {
+        return call.callee instanceof Expr.Get get && get.name.lexeme.equals("len") && call.arguments.isEmpty() && call.instance == null;
+    }
+
+    private static boolean isWorthHoisting(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal ignored -> false;
+            case Expr.Variable ignored -> false;
+            case Expr.This ignored -> false;
+            case Expr.Hoisted ignored -> false;
+            case Expr.Grouping grouping -> isWorthHoisting(grouping.expression);
+            default -> true;
+        };
+    }
+
+    /**
+     * Whether the expression has the same value on every iteration of a loop with the given
+     * effects. If the loop can run code, only locals that no function assigns qualify; if it
+     * can't (or assumeCode is off and nothing in it can), property reads and len() do too.
+     */
+    private boolean isInvariant(Expr expr, Effects loop, boolean assumeCode) {
+        boolean heap = !assumeCode && !loop.runsCode;
+
+        return switch (expr) {
+            case Expr.Literal ignored -> true;
+            case Expr.This ignored -> true;
+
+            case Expr.Variable variable -> !loop.written.contains(variable.name.lexeme)
+                    && (heap || interpreter.isResolvedLocally(variable) && !writtenInFunctions.contains(variable.name.lexeme));
+
+            case Expr.Grouping grouping -> isInvariant(grouping.expression, loop, assumeCode);
+
+            case Expr.Unary unary when unary.operator.type == TokenType.MINUS || unary.operator.type == TokenType.BANG ->
+                    isInvariant(unary.right, loop, assumeCode);
+
+            case Expr.Binary binary when binary.operator.type != TokenType.DOT_DOT ->
+                    isInvariant(binary.left, loop, assumeCode) && isInvariant(binary.right, loop, assumeCode);
+
+            case Expr.Logical logical -> isInvariant(logical.left, loop, assumeCode) && isInvariant(logical.right, loop, assumeCode);
+
+            case Expr.Ternary ternary -> isInvariant(ternary.condition, loop, assumeCode)
+                    && isInvariant(ternary.thenBranch, loop, assumeCode)
+                    && isInvariant(ternary.elseBranch, loop, assumeCode);
+
+            case Expr.Get get -> heap && isInvariant(get.object, loop, false);
+            case Expr.SubscriptGet get -> heap && isInvariant(get.indexee, loop, false) && isInvariant(get.index, loop, false);
+            case Expr.Call call when isLength(call) -> heap && isInvariant(((Expr.Get) call.callee).object, loop, false);
+
+            default -> false;
+        };
+    }
+
+    /**
+     * Marks `for (i = start; i < limit; i = i + step)` (or <=, >, >=, or i += step, ++i) as counted
+     * when nothing but the increment assigns i.
+     */
+    private boolean count(Stmt.For loop) {
+        if (!(loop.initializer instanceof Stmt.Var counter) || counter.initializer == null) return false;
+        String name = counter.name.lexeme;
+
+        if (!(loop.condition instanceof Expr.Binary condition) || !isVariable(condition.left, name)) return false;
+
+        switch (condition.operator.type) {
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {}
+            default -> {
+                return false;
             }
         }
 
-        return new Stmt.Expression(opt);
+        Double step = switch (loop.increment) {
+            case Expr.Assign assign when assign.name.lexeme.equals(name)
+                    && assign.value instanceof Expr.Binary sum
+                    && isVariable(sum.left, name)
+                    && sum.right instanceof Expr.Literal literal
+                    && literal.value instanceof Double d -> switch (sum.operator.type) {
+                case PLUS -> d;
+                case MINUS -> -d;
+                default -> null;
+            };
+
+            case Expr.Unary unary when isVariable(unary.right, name) -> switch (unary.operator.type) {
+                case PLUS_PLUS -> 1.0;
+                case MINUS_MINUS -> -1.0;
+                default -> null;
+            };
+
+            case null, default -> null;
+        };
+
+        if (step == null) return false;
+
+        Effects rest = new Effects();
+        rest.expr(condition.right);
+        rest.statements(loop.body);
+
+        if (rest.written.contains(name)) return false;
+
+        loop.countedOperator = condition.operator;
+        loop.countedLimit = condition.right;
+        loop.countedStep = step;
+        return true;
+    }
+
+    private static boolean isVariable(Expr expr, String name) {
+        return expr instanceof Expr.Variable variable && variable.name.lexeme.equals(name);
+    }
+
+    // statements
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        if (region != null) return stmt;
+
+        List<Stmt.Function> methods = optimizeFunctions(stmt.methods);
+        List<Stmt.Function> staticMethods = optimizeFunctions(stmt.staticMethods);
+
+        if (methods == stmt.methods && staticMethods == stmt.staticMethods) return stmt;
+
+        Stmt.Class klass = new Stmt.Class(stmt.name, stmt.fields, stmt.superclass, stmt.traits, methods, staticMethods);
+        klass.declaredFields = stmt.declaredFields;
+        return klass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+
+        if (isConstant(expression)) return null;
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
     }
 
     @Override
     public Stmt visitFunctionStmt(Stmt.Function stmt) {
-        functionTable.put(stmt.name.lexeme, stmt);
-        return stmt;
+        if (region != null) return stmt;
+
+        List<Stmt> body = optimizeAll(stmt.body);
+        if (body == stmt.body) return stmt;
+
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body, stmt.isAbstract, stmt.isAsync, stmt.isPrivate);
+        function.hasReceiver = stmt.hasReceiver;
+        return function;
     }
 
     @Override
     public Stmt visitIfStmt(Stmt.If stmt) {
-        Expr cond = stmt.condition.accept(this);
-        Stmt thenBranch = stmt.thenBranch.accept(this);
-        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
-
-        if (cond instanceof Expr.Literal lit) {
-            Object val = lit.value;
+        Expr condition = optimize(stmt.condition);
 
-            if (val instanceof Boolean bool) {
-                return bool ? thenBranch : elseBranch;
-            }
+        if (isConstant(condition)) {
+            return isTruthy(constant(condition)) ? optimize(stmt.thenBranch) : optimize(stmt.elseBranch);
         }
 
-        return new Stmt.If(cond, thenBranch, elseBranch);
+        Stmt thenBranch = optimizeBranch(stmt.thenBranch);
+        Stmt elseBranch = optimizeBranch(stmt.elseBranch);
+
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) return stmt;
+        return new Stmt.If(condition, thenBranch, elseBranch);
     }
 
     @Override
     public Stmt visitReturnStmt(Stmt.Return stmt) {
-        return stmt;
+        Expr value = optimize(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
     }
 
     @Override
     public Stmt visitVarStmt(Stmt.Var stmt) {
-        Expr init = null;
+        Expr initializer = optimize(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        if (region != null) return stmt; // an inner loop hoists into its own frame
 
-        if (stmt.initializer != null) {
-            if (stmt.initializer instanceof Expr.Binary bin) {
-                init = bin.accept(this);
-            } else {
-                init = stmt.initializer;
+        Expr condition = optimize(stmt.condition);
+
+        if (isConstant(condition) && !isTruthy(constant(condition))) return null;
+
+        Stmt body = optimizeBranch(stmt.body);
+
+        if (optimizeLoops) {
+            Effects effects = new Effects();
+            effects.expr(condition);
+            effects.stmt(body);
+
+            Region loop = enter(effects);
+
+            try {
+                condition = optimize(condition);
+                body = optimizeBranch(body);
+            } finally {
+                region = null;
+            }
+
+            if (loop.hoisted > 0) {
+                Stmt.While optimized = new Stmt.While(condition, body);
+                optimized.hoisted = loop.hoisted;
+                return optimized;
             }
         }
 
-        return new Stmt.Var(stmt.name, init);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
     }
 
     @Override
-    public Stmt visitWhileStmt(Stmt.While stmt) {
-        Expr cond = stmt.condition.accept(this);
-        Stmt body = stmt.body.accept(this);
+    public Stmt visitForInStmt(Stmt.ForIn stmt) {
+        if (region != null) return stmt;
 
-        if (cond instanceof Expr.Literal lit && Boolean.FALSE.equals(lit.value)) {
-            return null;
-        }
+        Expr iterable = optimize(stmt.iterable);
+        List<Stmt> body = optimizeAll(stmt.body);
+
+        if (optimizeLoops) {
+            Effects effects = new Effects();
+            effects.write(stmt.key.lexeme);
+            if (stmt.value != null) effects.write(stmt.value.lexeme);
+            effects.statements(body);
 
-        if (cond instanceof Expr.Literal lit && Boolean.TRUE.equals(lit.value)) {
-            return new Stmt.Block(Arrays.asList(body, new Stmt.While(cond, body)));
+            Region loop = enter(effects);
+
+            try {
+                body = optimizeAll(body);
+            } finally {
+                region = null;
+            }
+
+            boolean range = iterable instanceof Expr.Binary binary && binary.operator.type == TokenType.DOT_DOT;
+
+            if (loop.hoisted > 0 || range) {
+                Stmt.ForIn optimized = rebuild(stmt, iterable, body);
+                optimized.hoisted = loop.hoisted;
+                optimized.rangeLoop = range;
+                return optimized;
+            }
         }
 
-        return new Stmt.While(cond, body);
+        if (iterable == stmt.iterable && body == stmt.body) return stmt;
+        return rebuild(stmt, iterable, body);
     }
 
-    @Override
-    public Stmt visitForInStmt(Stmt.ForIn stmt) {
-        return stmt;
+    // what the Resolver noted about a loop stays with it when it's rebuilt
+    private static Stmt.ForIn rebuild(Stmt.ForIn stmt, Expr iterable, List<Stmt> body) {
+        Stmt.ForIn loop = new Stmt.ForIn(stmt.keyword, stmt.key, stmt.value, iterable, body);
+        loop.closures = stmt.closures;
+        return loop;
+    }
+
+    private static Stmt.For rebuild(Stmt.For stmt, Stmt initializer, Expr condition, Expr increment, List<Stmt> body) {
+        Stmt.For loop = new Stmt.For(stmt.keyword, initializer, condition, increment, body);
+        loop.closures = stmt.closures;
+        return loop;
     }
 
     @Override
     public Stmt visitTraitStmt(Stmt.Trait stmt) {
-        return stmt;
+        if (region != null) return stmt;
+
+        List<Stmt.Function> methods = optimizeFunctions(stmt.methods);
+        return methods == stmt.methods ? stmt : new Stmt.Trait(stmt.name, stmt.traits, methods);
     }
 
     @Override
     public Stmt visitThrowStmt(Stmt.Throw stmt) {
-        return stmt;
+        Expr thrown = optimize(stmt.thrown);
+        return thrown == stmt.thrown ? stmt : new Stmt.Throw(stmt.keyword, thrown);
     }
 
     @Override
@@ -386,22 +1210,31 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Stmt visitTryCatchStmt(Stmt.TryCatch stmt) {
-        return stmt;
+        List<Stmt> tryBody = optimizeAll(stmt.tryBody);
+        List<Stmt> catchBody = optimizeAll(stmt.catchBody);
+
+        if (tryBody == stmt.tryBody && catchBody == stmt.catchBody) return stmt;
+        return new Stmt.TryCatch(tryBody, catchBody, stmt.exception);
     }
 
     @Override
     public Stmt visitNamespaceStmt(Stmt.Namespace stmt) {
-        return stmt;
+        if (region != null) return stmt;
+
+        List<Stmt> body = optimizeAll(stmt.body);
+        return body == stmt.body ? stmt : new Stmt.Namespace(stmt.name, body);
     }
 
     @Override
     public Stmt visitObjectDestructuringStmt(Stmt.ObjectDestructuring stmt) {
-        return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.ObjectDestructuring(stmt.keyword, stmt.bindings, initializer);
     }
 
     @Override
     public Stmt visitArrayDestructuringStmt(Stmt.ArrayDestructuring stmt) {
-        return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.ArrayDestructuring(stmt.keyword, stmt.bindings, initializer);
     }
 
     @Override
@@ -411,16 +1244,52 @@ public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Stmt visitForStmt(Stmt.For stmt) {
-        return stmt;
+        if (region != null) return stmt;
+
+        Stmt initializer = optimize(stmt.initializer);
+        Expr condition = optimize(stmt.condition);
+        Expr increment = optimize(stmt.increment);
+        List<Stmt> body = optimizeAll(stmt.body);
+
+        if (optimizeLoops) {
+            Effects effects = new Effects();
+            effects.expr(condition);
+            effects.expr(increment);
+            effects.statements(body);
+
+            Region loop = enter(effects);
+
+            try {
+                condition = optimize(condition);
+                increment = optimize(increment);
+                body = optimizeAll(body);
+            } finally {
+                region = null;
+            }
+
+            Stmt.For optimized = rebuild(stmt, initializer, condition, increment, body);
+            optimized.hoisted = loop.hoisted;
+
+            if (count(optimized) || loop.hoisted > 0) return optimized;
+        }
+
+        if (initializer == stmt.initializer && condition == stmt.condition && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+
+        return rebuild(stmt, initializer, condition, increment, body);
     }
 
     @Override
     public Stmt visitImplStmt(Stmt.Impl stmt) {
-        return stmt;
+        if (region != null) return stmt;
+
+        List<Stmt.Function> methods = optimizeFunctions(stmt.methods);
+        return methods == stmt.methods ? stmt : new Stmt.Impl(stmt.keyword, stmt.name, methods);
     }
 
     @Override
-    public Stmt visitExportStmt(Stmt.Export Stmt) {
-        return null;
+    public Stmt visitExportStmt(Stmt.Export stmt) {
+        return stmt;
     }
 }
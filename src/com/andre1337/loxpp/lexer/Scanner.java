@@ -7,70 +7,113 @@ import java.util.*;
 import static com.andre1337.loxpp.lexer.TokenType.*;
 
 public class Scanner {
-  public static final Map<String, TokenType> keywords;
+  private static final Object[][] KEYWORDS = {
+          {"class", CLASS}, {"else", ELSE}, {"false", FALSE}, {"for", FOR}, {"fn", FN}, {"if", IF},
+          {"null", NULL}, {"return", RETURN}, {"super", SUPER}, {"self", THIS}, {"true", TRUE},
+          {"let", LET}, {"while", WHILE}, {"extends", EXTENDS}, {"in", IN}, {"static", STATIC},
+          {"trait", TRAIT}, {"with", WITH}, {"throw", THROW}, {"enum", ENUM}, {"is", IS},
+          {"abstract", ABSTRACT}, {"typeof", TYPEOF}, {"lazy", LAZY}, {"catch", CATCH},
+          {"finally", FINALLY}, {"namespace", NAMESPACE}, {"using", USING}, {"from", FROM},
+          {"union", UNION}, {"match", MATCH}, {"impl", IMPL}, {"async", ASYNC}, {"await", AWAIT},
+          {"try", TRY}, {"private", PRIVATE}, {"export", EXPORT}, {"new", NEW},
+  };
+
+  // a perfect hash: no two keywords share a bucket, so a lookup is one hash and one comparison
+  private static final String[] keywordNames = new String[128];
+  private static final TokenType[] keywordTypes = new TokenType[128];
 
   static {
-    keywords = new HashMap<>();
-    keywords.put("class", CLASS);
-    keywords.put("else", ELSE);
-    keywords.put("false", FALSE);
-    keywords.put("for", FOR);
-    keywords.put("fn", FN);
-    keywords.put("if", IF);
-    keywords.put("null", NULL);
-    keywords.put("return", RETURN);
-    keywords.put("super", SUPER);
-    keywords.put("self", THIS);
-    keywords.put("true", TRUE);
-    keywords.put("let", LET);
-    keywords.put("while", WHILE);
-    keywords.put("extends", EXTENDS);
-    keywords.put("in", IN);
-    keywords.put("static", STATIC);
-    keywords.put("trait", TRAIT);
-    keywords.put("with", WITH);
-    keywords.put("throw", THROW);
-    keywords.put("enum", ENUM);
-    keywords.put("is", IS);
-    keywords.put("abstract", ABSTRACT);
-    keywords.put("typeof", TYPEOF);
-    keywords.put("lazy", LAZY);
-    keywords.put("catch", CATCH);
-    keywords.put("finally", FINALLY);
-    keywords.put("namespace", NAMESPACE);
-    keywords.put("using", USING);
-    keywords.put("from", FROM);
-    keywords.put("union", UNION);
-    keywords.put("match", MATCH);
-    keywords.put("impl", IMPL);
-    keywords.put("async", ASYNC);
-    keywords.put("await", AWAIT);
-    keywords.put("try", TRY);
-    keywords.put("private", PRIVATE);
-    keywords.put("export", EXPORT);
-    keywords.put("new", NEW);
+    for (Object[] keyword : KEYWORDS) {
+      String name = (String) keyword[0];
+      int bucket = keywordBucket(name.charAt(0), name.charAt(name.length() - 1), name.length());
+
+      if (keywordNames[bucket] != null) {
+        throw new IllegalStateException("Keywords '" + name + "' and '" + keywordNames[bucket] + "' collide, pick a new keyword hash.");
+      }
+
+      keywordNames[bucket] = name;
+      keywordTypes[bucket] = (TokenType) keyword[1];
+    }
+  }
+
+  private static int keywordBucket(char first, char last, int length) {
+    return (first + last * 30 + length * 4) & 127;
   }
 
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private static final double[] POWERS_OF_TEN = {
+          1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+          1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+  };
+
+  private final char[] source;
+  private final List<Token> tokens = new ArrayList<>(); // scanned but not yet handed out
+  private int[] ends = new int[8]; // where each of those tokens stops in the source
+  private int handed = 0;
+  private int end = 0;
+  private Token eof = null;
   private int start = 0;
   private int current = 0;
   private int line = 1;
   private int column = 0;
   private int interpolationDepth = 0;
 
+  // identifiers, keywords and operators repeat all over a file, each spelling is allocated once per
+  // scanner and interned, so every module's trees share the same symbol strings
+  private String[] lexemes = new String[256];
+  private int lexemeCount = 0;
+
   public Scanner(String source) {
-    this.source = source;
+    this.source = source.toCharArray();
+  }
+
+  /**
+   * Scans a piece of a larger source, numbering its lines and columns from where the piece starts
+   * there, so tokens and errors point into the whole text.
+   */
+  public Scanner(String source, int line, int column) {
+    this(source);
+    this.line = line;
+    this.column = column;
   }
 
   public List<Token> scanTokens() {
-    while (!isAtEnd()) {
+    List<Token> all = new ArrayList<>(source.length / 4 + 1);
+    Token token;
+
+    do {
+      token = nextToken();
+      all.add(token);
+    } while (token.type != EOF);
+
+    return all;
+  }
+
+  /**
+   * Scans just far enough to return the next token, so a parser can work through a large source
+   * without the whole token list existing at once. Keeps returning EOF at the end.
+   */
+  public Token nextToken() {
+    while (handed == tokens.size()) {
+      tokens.clear();
+      handed = 0;
+
+      if (isAtEnd()) {
+        if (eof == null) eof = new Token(EOF, "", line, column + 1);
+        end = source.length;
+        return eof;
+      }
+
       start = current;
       scanToken();
     }
 
-    tokens.add(new Token(EOF, "", null, line, column + 1));
-    return tokens;
+    end = ends[handed];
+    return tokens.get(handed++);
+  }
+
+  // the source offset just past the token nextToken last returned
+  public int end() {
+    return end;
   }
 
   private void scanToken() {
@@ -224,30 +267,62 @@ public class Scanner {
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null) type = IDENTIFIER;
-    addToken(type);
+    int length = current - start;
+    int bucket = keywordBucket(source[start], source[current - 1], length);
+    String keyword = keywordNames[bucket];
+
+    if (keyword != null && keyword.length() == length && spells(keyword)) {
+      emit(new Token(keywordTypes[bucket], keyword, line, column));
+    } else {
+      addToken(IDENTIFIER);
+    }
+  }
+
+  private boolean spells(String word) {
+    for (int i = 0; i < word.length(); i++) {
+      if (source[start + i] != word.charAt(i)) return false;
+    }
+
+    return true;
   }
 
   private void number() {
-    while (isDigit(peek()))
-      advance();
+    long digits = source[start] - '0';
+    int significant = 1;
+    int decimals = 0;
+
+    while (isDigit(peek())) {
+      digits = digits * 10 + (advance() - '0');
+      significant++;
+    }
 
     if (peek() == '.' && isDigit(peekNext())) {
-        do advance();
-        while (isDigit(peek()));
+      advance();
+
+      while (isDigit(peek())) {
+        digits = digits * 10 + (advance() - '0');
+        significant++;
+        decimals++;
+      }
     }
 
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    // up to 15 digits the value and the power of ten are exact doubles, and one division rounds
+    // correctly; longer literals go through the full parser
+    double value = significant <= 15
+            ? digits / POWERS_OF_TEN[decimals]
+            : Double.parseDouble(new String(source, start, current - start));
+
+    addToken(NUMBER, value);
   }
 
   private void string() {
+    boolean escaped = false;
+
     while (!isAtEnd() && peek() != '"') {
       if (peek() == '$' && peekNext() == '{') {
-        int trimStart = (source.charAt(start) == '"') ? start + 1 : start;
+        int trimStart = (source[start] == '"') ? start + 1 : start;
 
-        addToken(STRING_PART, source.substring(trimStart, current));
+        addToken(STRING_PART, text(trimStart, current, escaped));
 
         advance(); // $
         advance(); // {
@@ -258,6 +333,7 @@ public class Scanner {
       }
 
       if (peek() == '\\') {
+        escaped = true;
         advance();
         advance();
         continue;
@@ -274,23 +350,72 @@ public class Scanner {
 
     advance();
 
-    int beginIndex = (source.charAt(start) == '"') ? start + 1 : start;
+    int beginIndex = (source[start] == '"') ? start + 1 : start;
     beginIndex = Math.min(beginIndex, current - 1);
 
-    String value = source.substring(beginIndex, current - 1);
-    value = value.replace("\\n", "\n")
-            .replace("\\r", "\r")
-            .replace("\\t", "\t")
-            .replace("\\\"", "\"")
-            .replace("\\\\", "\\");
+    addToken(STRING, text(beginIndex, current - 1, escaped));
+  }
+
+  // the contents of a string literal, with its escapes decoded in one pass
+  private String text(int from, int to, boolean escaped) {
+    if (!escaped) return new String(source, from, to - from);
+
+    StringBuilder text = new StringBuilder(to - from);
+
+    for (int i = from; i < to; i++) {
+      char c = source[i];
+
+      if (c != '\\' || i + 1 == to) {
+        text.append(c);
+        continue;
+      }
+
+      char next = source[++i];
+
+      switch (next) {
+        case 'n' -> text.append('\n');
+        case 'r' -> text.append('\r');
+        case 't' -> text.append('\t');
+        case '"' -> text.append('"');
+        case '\\' -> text.append('\\');
+        case '$' -> text.append('$');
+
+        case 'u' -> {
+          int codeUnit = i + 4 < to ? hex(i + 1) : -1;
+
+          if (codeUnit < 0) {
+            Lox.error(line, column, "Invalid unicode escape, expected four hex digits after '\\u'.");
+            text.append("\\u");
+          } else {
+            text.append((char) codeUnit);
+            i += 4;
+          }
+        }
+
+        // unknown escapes stay as written
+        default -> text.append('\\').append(next);
+      }
+    }
 
-    addToken(STRING, value);
+    return text.toString();
+  }
+
+  private int hex(int from) {
+    int value = 0;
+
+    for (int i = from; i < from + 4; i++) {
+      int digit = Character.digit(source[i], 16);
+      if (digit < 0) return -1;
+      value = value * 16 + digit;
+    }
+
+    return value;
   }
 
   private boolean match(char expected) {
     if (isAtEnd())
       return false;
-    if (source.charAt(current) != expected)
+    if (source[current] != expected)
       return false;
 
     current++;
@@ -298,28 +423,16 @@ public class Scanner {
     return true;
   }
 
-  @SuppressWarnings("unused")
-  private boolean checkSequence(String expected) {
-    if (isAtEnd())
-      return false;
-    if (current + expected.length() > source.length())
-      return false;
-
-    advance();
-    advance();
-    return source.startsWith(expected, start);
-  }
-
   private char peek() {
     if (isAtEnd())
       return '\0';
-    return source.charAt(current);
+    return source[current];
   }
 
   private char peekNext() {
-    if (current + 1 >= source.length())
+    if (current + 1 >= source.length)
       return '\0';
-    return source.charAt(current + 1);
+    return source[current + 1];
   }
 
   private boolean isAlpha(char c) {
@@ -335,20 +448,66 @@ public class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= source.length;
   }
 
   private char advance() {
     column++;
-    return source.charAt(current++);
+    return source[current++];
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    emit(new Token(type, lexeme(), line, column));
   }
 
   private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line, column));
+    String text = type == NUMBER ? lexeme() : new String(source, start, current - start);
+    emit(new Token.Literal(type, text, literal, line, column));
+  }
+
+  private void emit(Token token) {
+    if (tokens.size() == ends.length) ends = Arrays.copyOf(ends, ends.length * 2);
+
+    ends[tokens.size()] = current;
+    tokens.add(token);
+  }
+
+  // the shared String for source[start..current), from an open-addressing table keyed by the chars
+  private String lexeme() {
+    int length = current - start;
+    int hash = 0;
+
+    for (int i = start; i < current; i++) {
+      hash = 31 * hash + source[i];
+    }
+
+    int mask = lexemes.length - 1;
+
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      String lexeme = lexemes[slot];
+
+      if (lexeme == null) {
+        lexeme = new String(source, start, length).intern();
+        lexemes[slot] = lexeme;
+        if (++lexemeCount * 2 > lexemes.length) growLexemes();
+        return lexeme;
+      }
+
+      if (lexeme.length() == length && spells(lexeme)) return lexeme;
+    }
+  }
+
+  private void growLexemes() {
+    String[] old = lexemes;
+    lexemes = new String[old.length * 2];
+    int mask = lexemes.length - 1;
+
+    for (String lexeme : old) {
+      if (lexeme == null) continue;
+
+      int slot = lexeme.hashCode() & mask;
+      while (lexemes[slot] != null) slot = (slot + 1) & mask;
+      lexemes[slot] = lexeme;
+    }
   }
 }
@@ -1,21 +1,51 @@
 package com.andre1337.loxpp.lexer;
 
 public class Token {
+  public static final int MAX_LINE = 0xFFFFF;
+  public static final int MAX_COLUMN = 0xFFF;
+
   public final TokenType type;
   public final String lexeme;
-  public Object literal;
-  public int line;
-  public int column;
+  // the line in the high 20 bits, the column in the low 12; larger values saturate
+  private final int position;
 
-  public Token(TokenType type, String lexeme, Object literal, int line, int column) {
+  public Token(TokenType type, String lexeme, int line, int column) {
     this.type = type;
     this.lexeme = lexeme;
-    this.literal = literal;
-    this.line = line;
-    this.column = column;
+    this.position = Math.min(Math.max(line, 0), MAX_LINE) << 12 | Math.min(Math.max(column, 0), MAX_COLUMN);
+  }
+
+  public int line() {
+    return position >>> 12;
+  }
+
+  public int column() {
+    return position & 0xFFF;
+  }
+
+  public Object literal() {
+    return null;
   }
 
   public String toString() {
-    return type + " " + lexeme + " " + literal;
+    return type + " " + lexeme + " " + literal();
+  }
+
+  /**
+   * A number or string token. Only these carry a value, so the tokens the tree keeps for names and
+   * operators don't pay for the field.
+   */
+  public static final class Literal extends Token {
+    public final Object value;
+
+    public Literal(TokenType type, String lexeme, Object value, int line, int column) {
+      super(type, lexeme, line, column);
+      this.value = value;
+    }
+
+    @Override
+    public Object literal() {
+      return value;
+    }
   }
 }
@@ -3,6 +3,7 @@ package com.andre1337.loxpp.parser;
 import com.andre1337.loxpp.Lox;
 import com.andre1337.loxpp.ast.Expr;
 import com.andre1337.loxpp.ast.Stmt;
+import com.andre1337.loxpp.lexer.Scanner;
 import com.andre1337.loxpp.lexer.Token;
 import com.andre1337.loxpp.lexer.TokenType;
 
@@ -14,17 +15,36 @@ public class Parser {
   private static class ParseError extends RuntimeException {
   }
 
-  private final List<Token> tokens;
+  // the parser never looks further than one token back or ahead, so it scans as it goes and only
+  // keeps the last few tokens
+  private static final int WINDOW = 4;
+
+  private final Scanner scanner;
+  private final Token[] window = new Token[WINDOW];
+  private final int[] ends = new int[WINDOW]; // where each token in the window stops in the source
+  private int scanned = 0;
   private int current = 0;
 
-  public Parser(List<Token> tokens) {
-    this.tokens = tokens;
+  // literal nodes are immutable and nothing keys on their identity, so equal constants share one
+  private final Map<Object, Expr.Literal> literals = new HashMap<>();
+
+  public Parser(Scanner scanner) {
+    this.scanner = scanner;
   }
 
   public List<Stmt> parse() {
+    return parse(null);
+  }
+
+  /**
+   * Parses like parse(), also adding to declarationEnds the source offset where each top-level
+   * declaration stops, so a caller can keep them apart and reparse one on its own.
+   */
+  public List<Stmt> parse(List<Integer> declarationEnds) {
     List<Stmt> statements = new ArrayList<>();
     while (!isAtEnd()) {
       statements.add(declaration());
+      if (declarationEnds != null) declarationEnds.add(ends[(current - 1) % WINDOW]);
     }
 
     return statements;
@@ -115,7 +135,6 @@ public class Parser {
                                         new Token(
                                                 THIS,
                                                 "self",
-                                                null,
                                                 0,
                                                 0
                                         )
@@ -132,12 +151,11 @@ public class Parser {
                       new Token(
                               IDENTIFIER,
                               "init",
-                              null,
                               0,
                               0
                       ),
                       fields.stream().map(field -> new Stmt.Function.Param(
-                              new Token(IDENTIFIER, field.name.lexeme, null, 0, 0),
+                              new Token(IDENTIFIER, field.name.lexeme, 0, 0),
                               null)
                       ).toList(),
                       body,
@@ -240,7 +258,7 @@ public class Parser {
 
     List<Stmt> body = block();
 
-    if (condition == null) condition = new Expr.Literal(true);
+    if (condition == null) condition = literal(true);
 
     return new Stmt.For(keyword, initializer, condition, increment, body);
   }
@@ -504,7 +522,7 @@ public class Parser {
     List<Stmt> body = new ArrayList<>();
 
     if (match(ARROW)) {
-      body.add(new Stmt.Return(new Token(RETURN, "return", "return", previous().line++, previous().column++), expression()));
+      body.add(new Stmt.Return(new Token(RETURN, "return", previous().line(), previous().column()), expression()));
       consume(SEMICOLON, "Expect ';' after arrow " + kind + " declaration.");
     } else {
       consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
@@ -569,15 +587,16 @@ public class Parser {
   private Expr dictionary() {
     Token brace = previous();
 
-    Map<Token, Expr> keyValues = new HashMap<>();
+    Map<Token, Expr> keyValues = new LinkedHashMap<>();
     while (!check(RIGHT_BRACE) && !isAtEnd()) {
       if (match(SPREAD)) {
         Token spread = previous();
         Expr expr = expression();
         keyValues.put(spread, new Expr.Spread(spread, expr));
       } else {
-        Token key = consume(STRING, "Expect dictionary key.");
-        key.literal = ((String) key.literal).replace("\"", "").replace("\\\"", "").trim();
+        Token string = consume(STRING, "Expect dictionary key.");
+        String text = ((String) string.literal()).replace("\"", "").replace("\\\"", "").trim();
+        Token key = new Token.Literal(STRING, string.lexeme, text, string.line(), string.column());
         consume(COLON, "Expect ':' after dictionary key.");
 
         Expr value = expression();
@@ -624,7 +643,7 @@ public class Parser {
     List<Stmt> body = new ArrayList<>();
 
     if (match(ARROW)) {
-      body.add(new Stmt.Return(new Token(RETURN, "return", "return", previous().line++, previous().column++), expression()));
+      body.add(new Stmt.Return(new Token(RETURN, "return", previous().line(), previous().column()), expression()));
     } else {
       consume(LEFT_BRACE, "Expect '{' before lambda body.");
       body = block();
@@ -675,7 +694,7 @@ public class Parser {
 
       if (expr instanceof Expr.Variable var) {
         Token name = var.name;
-        return new Expr.Assign(name, new Expr.Binary(expr, new Token(PLUS, "+", null, plusEqual.line, plusEqual.column + 1), value));
+        return new Expr.Assign(name, new Expr.Binary(expr, new Token(PLUS, "+", plusEqual.line(), plusEqual.column() + 1), value));
       }
     }
 
@@ -685,7 +704,7 @@ public class Parser {
 
       if (expr instanceof Expr.Variable var) {
         Token name = var.name;
-        return new Expr.Assign(name, new Expr.Binary(expr, new Token(MINUS, "-", null, plusEqual.line, plusEqual.column + 1), value));
+        return new Expr.Assign(name, new Expr.Binary(expr, new Token(MINUS, "-", plusEqual.line(), plusEqual.column() + 1), value));
       }
     }
 
@@ -836,18 +855,18 @@ public class Parser {
 
   private Expr primary() {
     if (match(FALSE))
-      return new Expr.Literal(false);
+      return literal(false);
     if (match(TRUE))
-      return new Expr.Literal(true);
+      return literal(true);
     if (match(NULL))
-      return new Expr.Literal(null);
+      return literal(null);
 
     if (match(STRING_PART)) {
-      return finishInterpolation(previous().literal);
+      return finishInterpolation(previous().literal());
     }
 
     if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
+      return literal(previous().literal());
     }
 
     if (match(SUPER)) {
@@ -937,23 +956,23 @@ public class Parser {
   }
 
   private Expr finishInterpolation(Object firstPart) {
-    Expr expr = new Expr.Literal(firstPart);
+    Expr expr = literal(firstPart);
 
     while (true) {
       if (match(INTERPOLATION_START)) {
         Expr inner = expression();
         consume(RIGHT_BRACE, "Expect '}' after interpolation expression.");
 
-        Token plus = new Token(PLUS, "+", null, previous().line, previous().column);
+        Token plus = new Token(PLUS, "+", previous().line(), previous().column());
         expr = new Expr.Binary(expr, plus, inner);
       }
 
       if (match(STRING_PART)) {
-        Token plus = new Token(PLUS, "+", null, previous().line, previous().column);
-        expr = new Expr.Binary(expr, plus, new Expr.Literal(previous().literal));
+        Token plus = new Token(PLUS, "+", previous().line(), previous().column());
+        expr = new Expr.Binary(expr, plus, literal(previous().literal()));
       } else if (match(STRING)) {
-        Token plus = new Token(PLUS, "+", null, previous().line, previous().column);
-        expr = new Expr.Binary(expr, plus, new Expr.Literal(previous().literal));
+        Token plus = new Token(PLUS, "+", previous().line(), previous().column());
+        expr = new Expr.Binary(expr, plus, literal(previous().literal()));
         break;
       } else {
         break;
@@ -992,7 +1011,7 @@ public class Parser {
       body = block();
     } else {
       Expr expr = expression();
-      body = List.of(new Stmt.Return(new Token(RETURN, "return", "return", previous().line++, previous().column++), expr));
+      body = List.of(new Stmt.Return(new Token(RETURN, "return", previous().line(), previous().column()), expr));
       consume(SEMICOLON, "Expect ';' after match case body.");
     }
 
@@ -1106,8 +1125,8 @@ public class Parser {
   @SuppressWarnings("SameParameterValue")
   private boolean checkNext(TokenType type) {
     if (isAtEnd()) return false;
-    if (tokens.get(current + 1).type == EOF) return false;
-    return tokens.get(current + 1).type == type;
+    if (token(current + 1).type == EOF) return false;
+    return token(current + 1).type == type;
   }
 
   private Token advance() {
@@ -1121,11 +1140,24 @@ public class Parser {
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return token(current);
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return token(current - 1);
+  }
+
+  private Expr.Literal literal(Object value) {
+    return literals.computeIfAbsent(value, Expr.Literal::new);
+  }
+
+  private Token token(int index) {
+    while (scanned <= index) {
+      window[scanned % WINDOW] = scanner.nextToken();
+      ends[scanned++ % WINDOW] = scanner.end();
+    }
+
+    return window[index % WINDOW];
   }
 
   private ParseError error(Token token, String message) {
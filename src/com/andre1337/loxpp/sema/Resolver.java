@@ -22,6 +22,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   private final Stack<Map<String, LocalVar>> scopes = new Stack<>();
   private FunctionType currentFunction = FunctionType.NONE;
+  private int closures = 0; // functions, lambdas and lazies resolved so far
 
   public Resolver(Interpreter interpreter) {
     this.interpreter = interpreter;
@@ -36,6 +37,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   private ClassType currentClass = ClassType.NONE;
+  private Set<String> declaredFields = null; // of the class being resolved
   private final Map<String, Set<String>> privateMethods = new HashMap<>();
 
   public void resolve(List<Stmt> statements) {
@@ -55,7 +57,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
     ClassType enclosingClass = currentClass;
+    Set<String> enclosingFields = declaredFields;
     currentClass = ClassType.CLASS;
+    declaredFields = new LinkedHashSet<>();
 
     declare(stmt.name);
     define(stmt.name);
@@ -63,6 +67,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     if (stmt.fields != null) {
       for (Expr.Variable field : stmt.fields) {
         resolve(field);
+        declaredFields.add(field.name.lexeme);
       }
     }
 
@@ -87,10 +92,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     privateMethods.put(stmt.name.lexeme, new HashSet<>());
 
-    beginScope();
-    Map<String, LocalVar> scopeSelf = scopes.peek();
-    scopeSelf.put("self", new LocalVar(scopeSelf.size(), true));
-
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
 
@@ -102,23 +103,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         declaration = FunctionType.INITIALIZER;
       }
 
-      resolveFunction(method, declaration);
+      resolveFunction(method, declaration, "self");
     }
 
-    endScope();
-
     for (Stmt.Function staticMethod : stmt.staticMethods) {
-      beginScope();
-      Map<String, LocalVar> scopeStatic = scopes.peek();
-      scopeStatic.put("Self", new LocalVar(scopeStatic.size(), true));
-      resolveFunction(staticMethod, FunctionType.METHOD);
-      endScope();
+      resolveFunction(staticMethod, FunctionType.METHOD, "Self");
     }
 
     if (stmt.superclass != null)
       endScope();
 
+    stmt.declaredFields = List.copyOf(declaredFields);
     currentClass = enclosingClass;
+    declaredFields = enclosingFields;
     return null;
   }
 
@@ -180,15 +177,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitForInStmt(Stmt.ForIn stmt) {
-    declare(stmt.key);
-    if (stmt.value != null) declare(stmt.value);
-
     resolve(stmt.iterable);
 
+    // the key, the value, then whatever the body declares
+    beginScope();
+    declare(stmt.key);
     define(stmt.key);
-    if (stmt.value != null) define(stmt.value);
 
+    if (stmt.value != null) {
+      declare(stmt.value);
+      define(stmt.value);
+    }
+
+    int enclosingClosures = closures;
     resolve(stmt.body);
+    stmt.closures = closures != enclosingClosures;
+
+    endScope();
     return null;
   }
 
@@ -205,14 +210,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       }
     }
 
-    beginScope();
-    Map<String, LocalVar> scopeTrait = scopes.peek();
-    scopeTrait.put("this", new LocalVar(scopeTrait.size(), true));
     for (Stmt.Function method : stmt.methods) {
-      FunctionType declaration = FunctionType.METHOD;
-      resolveFunction(method, declaration);
+      resolveFunction(method, FunctionType.METHOD, "self");
     }
-    endScope();
 
     currentClass = enclosingClass;
     return null;
@@ -319,7 +319,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     beginScope();
     if (stmt.initializer != null) resolve(stmt.initializer);
     if (stmt.condition != null) resolve(stmt.condition);
+
+    int enclosingClosures = closures;
     resolve(stmt.body);
+    stmt.closures = closures != enclosingClosures;
+
     if (stmt.increment != null) resolve(stmt.increment);
     endScope();
     return null;
@@ -332,15 +336,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     resolve(stmt.name);
 
-    beginScope();
-    Map<String, LocalVar> scopeImpl = scopes.peek();
-    scopeImpl.put("self", new LocalVar(scopeImpl.size(), true));
-
     for (Stmt.Function method : stmt.methods) {
-      resolveFunction(method, FunctionType.METHOD);
+      resolveFunction(method, FunctionType.METHOD, "self");
     }
 
-    endScope();
     currentClass = enclosingClass;
     return null;
   }
@@ -360,6 +359,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitHoistedExpr(Expr.Hoisted expr) {
+    resolve(expr.expression);
+    return null;
+  }
+
   @Override
   public Void visitMatchExpr(Expr.Match expr) {
     resolve(expr.value);
@@ -448,6 +453,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitLazyExpr(Expr.Lazy expr) {
+    closures++;
+
     if (expr.expr != null) {
       resolve(expr.expr);
     } else {
@@ -491,6 +498,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitLambdaExpr(Expr.Lambda expr) {
+    closures++;
     FunctionType enclosing = currentFunction;
     currentFunction = FunctionType.LAMBDA;
     beginScope();
@@ -594,6 +602,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitSetExpr(Expr.Set expr) {
     resolve(expr.value);
     resolve(expr.object);
+
+    // fields init assigns are laid out before the first instance exists
+    if (currentFunction == FunctionType.INITIALIZER && expr.object instanceof Expr.This) {
+      declaredFields.add(expr.name.lexeme);
+    }
+
     return null;
   }
 
@@ -647,10 +661,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   private void resolveFunction(Stmt.Function function, FunctionType type) {
+    resolveFunction(function, type, null);
+  }
+
+  // a method gets its receiver as the first slot of its own frame, ahead of the parameters
+  private void resolveFunction(Stmt.Function function, FunctionType type, String receiver) {
+    closures++;
     FunctionType enclosingFunction = currentFunction;
     currentFunction = type;
 
     beginScope();
+    if (receiver != null) {
+      scopes.peek().put(receiver, new LocalVar(0, true));
+      function.hasReceiver = true;
+    }
+
     if (function.params != null) {
       for (Stmt.Function.Param param : function.params) {
         declare(param.name());
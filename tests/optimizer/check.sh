@@ -0,0 +1,38 @@
+#!/bin/sh
+# Runs every script here unoptimized and at each -O level, and fails if any output differs. The
+# stdlib's fib benchmark prints wall-clock times on every run, so those lines are left out.
+#
+#   tests/optimizer/check.sh <compiled classes directory or jar>
+
+if [ $# -ne 1 ]; then
+  echo "usage: $0 <classpath>" >&2
+  exit 2
+fi
+
+classpath=$1
+dir=$(dirname "$0")
+failed=0
+
+run() {
+  java -cp "$classpath" com.andre1337.loxpp.Lox "$@" 2>&1 | grep -v '^time taken: '
+}
+
+for script in "$dir"/*.lox; do
+  expected=$(run -O0 "$script")
+
+  for level in -O1 -O2; do
+    actual=$(run "$level" "$script")
+
+    if [ "$expected" != "$actual" ]; then
+      echo "FAIL $script ($level)"
+      echo "--- -O0"
+      echo "$expected"
+      echo "--- $level"
+      echo "$actual"
+      failed=1
+    fi
+  done
+done
+
+[ $failed -eq 0 ] && echo "all scripts match at every level"
+exit $failed